@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+/**
+ * Sizes the chunks of a main thread bind so that each chunk fits in what is
+ * left of the current frame. The cost of one item is measured as chunks run,
+ * so the chunk size adapts to the device and to the kind of item.
+ * <p>
+ * On API 16 and later the start of the current frame is tracked with
+ * Choreographer while a bind is running. Older releases only know the refresh
+ * rate of the display, and give each chunk half a frame.
+ * <p>
+ * Only used on the main thread.
+ */
+class BindBudget {
+    private static final String TAG = "Launcher.BindBudget";
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+    // Part of the frame left to the rest of the main thread work.
+    private static final float FRAME_MARGIN = 0.25f;
+    // The estimate of one item starts high, so that the first chunk is small.
+    private static final long INITIAL_ITEM_NANOS = 2000000L;
+    // Weight of the last chunk in the running estimate of one item, in 1/8.
+    private static final int ESTIMATE_WEIGHT = 3;
+    private static final int MAX_CHUNK = 64;
+    private static final int HISTORY_SIZE = 16;
+
+    private final String mName;
+    private final long mFrameNanos;
+    private final FrameClock mFrameClock;
+
+    private long mItemNanos = INITIAL_ITEM_NANOS;
+
+    // Statistics for dumpState().
+    private final int[] mChunkSizes = new int[HISTORY_SIZE];
+    private final long[] mChunkNanos = new long[HISTORY_SIZE];
+    private int mChunks;
+    private long mItems;
+    private long mOverBudget;
+
+    BindBudget(Context context, String name) {
+        mName = name;
+
+        final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        final Display display = wm != null ? wm.getDefaultDisplay() : null;
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        if (refreshRate < 10f) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        mFrameNanos = (long) (NANOS_PER_SECOND / refreshRate);
+
+        mFrameClock = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new FrameClock() : null;
+    }
+
+    /**
+     * Returns how many items the next chunk may bind.
+     */
+    int nextChunkSize() {
+        final long budget = getRemainingFrameNanos() - (long) (mFrameNanos * FRAME_MARGIN);
+        final long size = budget / Math.max(1, mItemNanos);
+        return (int) Math.max(1, Math.min(MAX_CHUNK, size));
+    }
+
+    /**
+     * Records that a chunk of items took nanos, and updates the estimate of
+     * one item.
+     */
+    void record(int items, long nanos) {
+        if (items <= 0) {
+            return;
+        }
+        final long itemNanos = nanos / items;
+        mItemNanos = (mItemNanos * (8 - ESTIMATE_WEIGHT) + itemNanos * ESTIMATE_WEIGHT) / 8;
+
+        final int i = mChunks % HISTORY_SIZE;
+        mChunkSizes[i] = items;
+        mChunkNanos[i] = nanos;
+        mChunks++;
+        mItems += items;
+        if (nanos > mFrameNanos) {
+            mOverBudget++;
+        }
+    }
+
+    /**
+     * Starts following the frames, call when a bind starts.
+     */
+    void start() {
+        if (mFrameClock != null) {
+            mFrameClock.start();
+        }
+    }
+
+    /**
+     * Stops following the frames, call when a bind is done.
+     */
+    void stop() {
+        if (mFrameClock != null) {
+            mFrameClock.stop();
+        }
+    }
+
+    private long getRemainingFrameNanos() {
+        if (mFrameClock != null) {
+            final long frameStart = mFrameClock.getFrameTimeNanos();
+            if (frameStart > 0) {
+                final long elapsed = (System.nanoTime() - frameStart) % mFrameNanos;
+                return mFrameNanos - elapsed;
+            }
+        }
+        // No idea where we are in the frame.
+        return mFrameNanos / 2 + (long) (mFrameNanos * FRAME_MARGIN);
+    }
+
+    void dumpState() {
+        Log.d(TAG, mName + ": frame=" + mFrameNanos / 1000 + "us item="
+                + mItemNanos / 1000 + "us chunks=" + mChunks + " items=" + mItems
+                + " overBudget=" + mOverBudget);
+        final int count = Math.min(mChunks, HISTORY_SIZE);
+        for (int n = count; n > 0; n--) {
+            final int i = (mChunks - n) % HISTORY_SIZE;
+            Log.d(TAG, "   chunk size=" + mChunkSizes[i] + " time="
+                    + mChunkNanos[i] / 1000 + "us");
+        }
+    }
+
+    /**
+     * Keeps the start time of the current frame while started. Stops by itself
+     * when nobody asked for the time for a while, so that a bind that was
+     * cancelled does not leave it running.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameClock implements Choreographer.FrameCallback {
+        private static final long IDLE_TIMEOUT_NANOS = 200000000L;
+
+        private long mFrameTimeNanos;
+        private long mLastUsedNanos;
+        private boolean mStarted;
+
+        void start() {
+            mLastUsedNanos = System.nanoTime();
+            if (!mStarted) {
+                mStarted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            if (mStarted) {
+                mStarted = false;
+                mFrameTimeNanos = 0;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        long getFrameTimeNanos() {
+            mLastUsedNanos = System.nanoTime();
+            return mFrameTimeNanos;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameTimeNanos = frameTimeNanos;
+            if (mStarted && System.nanoTime() - mLastUsedNanos > IDLE_TIMEOUT_NANOS) {
+                mStarted = false;
+                mFrameTimeNanos = 0;
+            }
+            if (mStarted) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+}
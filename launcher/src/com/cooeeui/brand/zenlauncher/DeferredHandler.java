@@ -31,6 +31,8 @@ import java.util.ListIterator;
  */
 public class DeferredHandler {
     private LinkedList<Pair<Runnable, Integer>> mQueue = new LinkedList<Pair<Runnable, Integer>>();
+    // The runnables that flush() has yet to run, null when not flushing.
+    private LinkedList<Pair<Runnable, Integer>> mFlushQueue;
     private MessageQueue mMessageQueue = Looper.myQueue();
     private Impl mHandler = new Impl();
 
@@ -86,6 +88,26 @@ public class DeferredHandler {
         }
     }
 
+    /**
+     * Schedule runnable to run before everything that's on the queue right
+     * now. Lets a runnable split its work over several messages, posting
+     * itself again without letting the runnables queued after it go first.
+     */
+    public void postAtFrontOfQueue(Runnable runnable, int type) {
+        synchronized (mQueue) {
+            final Pair<Runnable, Integer> p = new Pair<Runnable, Integer>(runnable, type);
+            if (mFlushQueue != null && Looper.myLooper() == mHandler.getLooper()) {
+                // Posted by a runnable that flush() is running, run it next.
+                mFlushQueue.addFirst(p);
+                return;
+            }
+            mQueue.addFirst(p);
+            if (mQueue.size() == 1) {
+                scheduleNextLocked();
+            }
+        }
+    }
+
     /** Schedule runnable to run when the queue goes idle. */
     public void postIdle(final Runnable runnable) {
         postIdle(runnable, 0);
@@ -127,9 +149,23 @@ public class DeferredHandler {
         synchronized (mQueue) {
             queue.addAll(mQueue);
             mQueue.clear();
+            mFlushQueue = queue;
         }
-        for (Pair<Runnable, Integer> p : queue) {
-            p.first.run();
+        try {
+            while (true) {
+                Pair<Runnable, Integer> p;
+                synchronized (mQueue) {
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    p = queue.removeFirst();
+                }
+                p.first.run();
+            }
+        } finally {
+            synchronized (mQueue) {
+                mFlushQueue = null;
+            }
         }
     }
 
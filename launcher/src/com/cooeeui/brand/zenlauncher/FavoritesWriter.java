@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Write-behind queue for the favorites table. Writes are merged per item id
+ * and applied in one batch, a short while after the first one or when
+ * {@link #flushSoon()} or {@link #flushNow()} is called. A reorder of the
+ * speed dial then costs one transaction instead of one per bubble.
+ * <p>
+ * Writes can be queued from any thread. The batch is applied on the worker
+ * thread, or on the thread calling {@link #flushNow()}; batches are applied
+ * one at a time and in order.
+ */
+class FavoritesWriter {
+    private static final String TAG = "Launcher.FavoritesWriter";
+    private static final boolean DEBUG = false;
+
+    // How long a write may wait for others to join it.
+    private static final long FLUSH_DELAY = 500;
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+
+    private static class PendingWrite {
+        int op;
+        ContentValues values;
+
+        PendingWrite(int op, ContentValues values) {
+            this.op = op;
+            this.values = values;
+        }
+    }
+
+    private final Handler mWorker;
+
+    // The writes not applied yet, by item id. Guarded by this.
+    private final LinkedHashMap<Long, PendingWrite> mPending =
+            new LinkedHashMap<Long, PendingWrite>();
+    private ContentResolver mResolver;
+    private boolean mScheduled;
+
+    // Held while a batch is taken and applied, so that batches do not pass
+    // each other.
+    private final Object mFlushLock = new Object();
+
+    // Statistics for dumpState(). Guarded by this.
+    private int mQueued;
+    private int mWritten;
+    private int mBatches;
+    private int mFailed;
+
+    FavoritesWriter(Handler worker) {
+        mWorker = worker;
+    }
+
+    /**
+     * Queues the insert of the item id, whose values include the id.
+     */
+    synchronized void insert(ContentResolver cr, long id, ContentValues values) {
+        mPending.put(id, new PendingWrite(OP_INSERT, new ContentValues(values)));
+        queued(cr);
+    }
+
+    /**
+     * Queues an update of the item id. Values queued for the same item before
+     * are kept unless values replaces them.
+     */
+    synchronized void update(ContentResolver cr, long id, ContentValues values) {
+        final PendingWrite pending = mPending.get(id);
+        if (pending == null) {
+            mPending.put(id, new PendingWrite(OP_UPDATE, new ContentValues(values)));
+        } else if (pending.op != OP_DELETE) {
+            pending.values.putAll(values);
+        }
+        queued(cr);
+    }
+
+    /**
+     * Queues the delete of the item id. An insert of it that is still queued
+     * is dropped instead.
+     */
+    synchronized void delete(ContentResolver cr, long id) {
+        final PendingWrite pending = mPending.get(id);
+        if (pending != null && pending.op == OP_INSERT) {
+            mPending.remove(id);
+        } else {
+            mPending.put(id, new PendingWrite(OP_DELETE, null));
+        }
+        queued(cr);
+    }
+
+    private void queued(ContentResolver cr) {
+        mResolver = cr;
+        mQueued++;
+        if (!mScheduled && !mPending.isEmpty()) {
+            mScheduled = true;
+            mWorker.postDelayed(mFlush, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Applies the queued writes on the worker thread without waiting for the
+     * deadline, for instance when the launcher is paused.
+     */
+    void flushSoon() {
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            mWorker.removeCallbacks(mFlush);
+            mScheduled = true;
+        }
+        mWorker.postAtFrontOfQueue(mFlush);
+    }
+
+    /**
+     * Applies the queued writes on the calling thread, before returning. For
+     * the loader before it reads the table.
+     */
+    void flushNow() {
+        synchronized (mFlushLock) {
+            final ArrayList<ContentProviderOperation> ops;
+            final ContentResolver cr;
+            synchronized (this) {
+                mWorker.removeCallbacks(mFlush);
+                mScheduled = false;
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                ops = new ArrayList<ContentProviderOperation>(mPending.size());
+                for (Map.Entry<Long, PendingWrite> e : mPending.entrySet()) {
+                    ops.add(toOperation(e.getKey(), e.getValue()));
+                }
+                mPending.clear();
+                cr = mResolver;
+            }
+            apply(cr, ops);
+        }
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flushNow();
+        }
+    };
+
+    private static ContentProviderOperation toOperation(long id, PendingWrite write) {
+        switch (write.op) {
+            case OP_INSERT:
+                return ContentProviderOperation
+                        .newInsert(LauncherSettings.Favorites.CONTENT_URI)
+                        .withValues(write.values).build();
+            case OP_UPDATE:
+                return ContentProviderOperation
+                        .newUpdate(LauncherSettings.Favorites.getContentUri(id, false))
+                        .withValues(write.values).build();
+            default:
+                return ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.getContentUri(id, false))
+                        .build();
+        }
+    }
+
+    private void apply(ContentResolver cr, ArrayList<ContentProviderOperation> ops) {
+        final long t = DEBUG ? SystemClock.uptimeMillis() : 0;
+        if (!applyBatch(cr, ops) && ops.size() > 1) {
+            // The batch was rolled back as a whole; write the operations one
+            // by one so that a bad one does not lose the others.
+            int failed = 0;
+            for (ContentProviderOperation op : ops) {
+                final ArrayList<ContentProviderOperation> single =
+                        new ArrayList<ContentProviderOperation>(1);
+                single.add(op);
+                if (!applyBatch(cr, single)) {
+                    failed++;
+                }
+            }
+            synchronized (this) {
+                mFailed += failed;
+            }
+        }
+        synchronized (this) {
+            mWritten += ops.size();
+            mBatches++;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "wrote " + ops.size() + " favorites in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    private static boolean applyBatch(ContentResolver cr,
+            ArrayList<ContentProviderOperation> ops) {
+        try {
+            cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " favorites", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " favorites", e);
+        } catch (RuntimeException e) {
+            // SQLiteException and the like, thrown by the provider.
+            Log.w(TAG, "Could not write " + ops.size() + " favorites", e);
+        }
+        return false;
+    }
+
+    synchronized void dumpState() {
+        Log.d(TAG, "queued=" + mQueued + " written=" + mWritten + " batches=" + mBatches
+                + " failed=" + mFailed + " pending=" + mPending.size());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.util.Log;
+
+import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.Utilities;
+
+/**
+ * Persistent store of app labels, so that a load does not have to open the
+ * Resources of every app just for its label. A label is reused as long as the
+ * locale, and the versionCode and lastUpdateTime of its package, are the ones
+ * it was stored with.
+ */
+class LabelStore {
+    private static final String TAG = "Launcher.LabelStore";
+
+    private static final String FILE_NAME = "labels.cache";
+    private static final int MAGIC = 0x5a4c4c42;
+    private static final int VERSION = 1;
+
+    private LabelStore() {
+    }
+
+    /**
+     * Returns the packages of activities by name, with the version
+     * information the labels are checked against. Only the packages that
+     * have a launcher activity are asked for, once each.
+     */
+    static HashMap<String, PackageInfo> getPackages(PackageManager pm,
+            List<ResolveInfo> activities) {
+        final HashMap<String, PackageInfo> packages = new HashMap<String, PackageInfo>();
+        for (ResolveInfo info : activities) {
+            final String packageName = info.activityInfo.packageName;
+            if (packages.containsKey(packageName)) {
+                continue;
+            }
+            try {
+                packages.put(packageName, pm.getPackageInfo(packageName, 0));
+            } catch (PackageManager.NameNotFoundException e) {
+                // Removed since the query, its labels are not stored.
+                packages.put(packageName, null);
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Reads the store in one pass and puts the labels that are still valid for
+     * packages into labelCache, keyed by ComponentName.
+     *
+     * @return the number of labels put into labelCache.
+     */
+    static int read(Context context, HashMap<String, PackageInfo> packages,
+            HashMap<Object, CharSequence> labelCache) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        DataInputStream in = null;
+        int count = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring label store with unknown format");
+                return 0;
+            }
+            if (!Utilities.getLocaleTag().equals(in.readUTF())) {
+                return 0;
+            }
+
+            final int N = in.readInt();
+            for (int i = 0; i < N; i++) {
+                final String component = in.readUTF();
+                final int versionCode = in.readInt();
+                final long lastUpdateTime = in.readLong();
+                final String label = in.readUTF();
+
+                final ComponentName cn = ComponentName.unflattenFromString(component);
+                if (cn == null) {
+                    continue;
+                }
+                final PackageInfo pi = packages.get(cn.getPackageName());
+                if (pi != null && pi.versionCode == versionCode
+                        && pi.lastUpdateTime == lastUpdateTime) {
+                    labelCache.put(cn, label);
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read label store", e);
+        } finally {
+            Utilities.closeSilently(in);
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the store with the titles of apps, tagged with the version
+     * information of their package in packages.
+     */
+    static void write(Context context, final HashMap<String, PackageInfo> packages,
+            final List<AppInfo> apps) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        try {
+            Utilities.writeFileAtomically(file, new Utilities.FileContents() {
+                public void writeTo(DataOutputStream out) throws IOException {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(Utilities.getLocaleTag());
+
+                    int count = 0;
+                    for (AppInfo app : apps) {
+                        if (app.title != null
+                                && packages.get(app.componentName.getPackageName()) != null) {
+                            count++;
+                        }
+                    }
+                    out.writeInt(count);
+                    for (AppInfo app : apps) {
+                        final PackageInfo pi = packages.get(app.componentName.getPackageName());
+                        if (app.title != null && pi != null) {
+                            out.writeUTF(app.componentName.flattenToShortString());
+                            out.writeInt(pi.versionCode);
+                            out.writeLong(pi.lastUpdateTime);
+                            out.writeUTF(app.title.toString());
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write label store", e);
+        }
+    }
+}
@@ -4,6 +4,9 @@ package com.cooeeui.brand.zenlauncher;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 
 import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
@@ -34,6 +37,7 @@ import android.widget.Toast;
 import com.cooeeui.brand.zenlauncher.appIntentUtils.AppIntentUtil;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
 import com.cooeeui.brand.zenlauncher.apps.IconCache;
+import com.cooeeui.brand.zenlauncher.apps.IconHandle;
 import com.cooeeui.brand.zenlauncher.apps.ItemInfo;
 import com.cooeeui.brand.zenlauncher.apps.ShortcutInfo;
 import com.cooeeui.brand.zenlauncher.category.CategoryData;
@@ -85,6 +89,10 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
     public static final int STATE_MAINMNEU = 1;
     private int mState = STATE_WORKSPACE;
 
+    // Updated apps are moved one by one within their categories while they
+    // are at most this fraction of all apps, 1/8.
+    private static final int REPOSITION_MAX_FRACTION = 8;
+
     private ValueAnimator mAnimator;
     private float mAnimatorValue;
 
@@ -215,6 +223,10 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
 
         mPaused = true;
         mDragController.cancelDrag();
+        // The process may be killed without notice once in the background,
+        // and onTerminate() never runs on devices: write what is queued now,
+        // ahead of the other work of the worker thread.
+        mModel.flushPendingWrites();
 
     }
 
@@ -399,6 +411,7 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
     public boolean startActivitySafely(Intent intent) {
         try {
             startActivity(intent);
+            mModel.onAppLaunched(intent);
             return true;
         } catch (ActivityNotFoundException e) {
             Toast.makeText(this, R.string.activity_not_found,
@@ -545,11 +558,25 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
     public void bindAllApplications(ArrayList<AppInfo> apps) {
         mApps = apps;
 
-        CategoryData.init(this, mApps);
+        CategoryData.init(mApps);
 
         mDrawer.notifyDataSetChanged();
     }
 
+    @Override
+    public void bindMoreApplications(ArrayList<AppInfo> apps) {
+        if (mApps == null) {
+            bindAllApplications(apps);
+            return;
+        }
+
+        // The batches arrive in sorted order, so the new apps only need to be
+        // appended and classified.
+        mApps.addAll(apps);
+        CategoryData.append(apps);
+        mDrawer.notifyDataSetChanged();
+    }
+
     @Override
     public void bindAppsAdded(final ArrayList<AppInfo> addedApps) {
         Runnable r = new Runnable() {
@@ -561,6 +588,12 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
             return;
         }
 
+        if (mApps != null) {
+            mApps.addAll(addedApps);
+            Collections.sort(mApps, LauncherModel.getAppNameComparator());
+            CategoryData.insert(addedApps, LauncherModel.getAppNameComparator());
+            mDrawer.notifyDataSetChanged();
+        }
     }
 
     @Override
@@ -575,6 +608,72 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
         }
 
         mSpeedDial.updateFromBind(apps);
+        if (mApps != null) {
+            // Titles and icons are updated in place, only the order may
+            // change. If it did not, only the cells of these apps are redrawn.
+            final Comparator<AppInfo> comparator = LauncherModel.getAppNameComparator();
+            Collections.sort(mApps, comparator);
+            if (apps.size() > mApps.size() / REPOSITION_MAX_FRACTION) {
+                // Too many apps moved, the categories may be out of order
+                // around them: build them again from the sorted list.
+                CategoryData.init(mApps);
+                mDrawer.notifyDataSetChanged();
+                return;
+            }
+            boolean moved = false;
+            for (AppInfo app : apps) {
+                moved |= CategoryData.reposition(app, comparator);
+            }
+            if (moved) {
+                mDrawer.notifyDataSetChanged();
+            } else {
+                mDrawer.notifyAppsChanged(apps);
+            }
+        }
+    }
+
+    @Override
+    public void bindShortcutIconsUpdated(final ArrayList<ShortcutInfo> shortcuts,
+            final ArrayList<IconHandle> icons) {
+        Runnable r = new Runnable() {
+            public void run() {
+                bindShortcutIconsUpdated(shortcuts, icons);
+            }
+        };
+        if (waitUntilResume(r)) {
+            return;
+        }
+
+        mSpeedDial.updateIconsFromBind(shortcuts, icons);
+    }
+
+    @Override
+    public void bindAppsReplaced(final ArrayList<AppInfo> oldApps,
+            final ArrayList<AppInfo> newApps) {
+        Runnable r = new Runnable() {
+            public void run() {
+                bindAppsReplaced(oldApps, newApps);
+            }
+        };
+        if (waitUntilResume(r)) {
+            return;
+        }
+
+        if (mApps != null) {
+            final IdentityHashMap<AppInfo, AppInfo> replacements =
+                    new IdentityHashMap<AppInfo, AppInfo>();
+            for (int i = 0; i < oldApps.size(); i++) {
+                replacements.put(oldApps.get(i), newApps.get(i));
+            }
+            for (int i = 0; i < mApps.size(); i++) {
+                final AppInfo app = replacements.get(mApps.get(i));
+                if (app != null) {
+                    mApps.set(i, app);
+                }
+            }
+            CategoryData.replaceAll(replacements);
+        }
+        bindAppsUpdated(newApps);
     }
 
     @Override
@@ -591,6 +690,11 @@ public class Launcher extends FragmentActivity implements View.OnClickListener,
         }
 
         mSpeedDial.removeBubbleViewFromBind(appInfos);
+        if (mApps != null) {
+            mApps.removeAll(appInfos);
+            CategoryData.remove(appInfos);
+            mDrawer.notifyDataSetChanged();
+        }
     }
 
     @Override
@@ -18,13 +18,26 @@ package com.cooeeui.brand.zenlauncher;
 
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.app.SearchManager;
 import android.content.BroadcastReceiver;
@@ -51,12 +64,17 @@ import android.util.Log;
 import com.cooeeui.brand.zenlauncher.apps.AllAppsList;
 import com.cooeeui.brand.zenlauncher.apps.AppFilter;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.AppMetadataStore;
 import com.cooeeui.brand.zenlauncher.apps.IconCache;
+import com.cooeeui.brand.zenlauncher.apps.IconHandle;
 import com.cooeeui.brand.zenlauncher.apps.ItemInfo;
 import com.cooeeui.brand.zenlauncher.apps.ShortcutInfo;
 import com.cooeeui.brand.zenlauncher.apps.Utilities;
+import com.cooeeui.brand.zenlauncher.config.GridConfig;
+import com.cooeeui.brand.zenlauncher.config.IconConfig;
 import com.cooeeui.brand.zenlauncher.debug.Logger;
 import com.cooeeui.brand.zenlauncher.scenes.utils.BitmapUtils;
+import com.cooeeui.brand.zenlauncher.scenes.utils.BuiltinIconStore;
 import com.cooeeui.brand.zenlauncher.scenes.utils.IconNameOrId;
 
 /**
@@ -68,8 +86,10 @@ public class LauncherModel extends BroadcastReceiver {
     static final boolean DEBUG_LOADERS = true;
     static final String TAG = "Launcher.Model";
 
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace
-                                              // icons
+    // Size the chunks of the main thread binds to the frame time that is
+    // left, see BindBudget. One budget per kind of item, as their costs differ.
+    private final BindBudget mWorkspaceBindBudget;
+    private final BindBudget mAppsBindBudget;
 
     private final LauncherAppState mApp;
     private final Object mLock = new Object();
@@ -90,6 +110,91 @@ public class LauncherModel extends BroadcastReceiver {
     }
     private static final Handler sWorker = new Handler(sWorkerThread.getLooper());
 
+    // Writes to the favorites table, merged per item and applied in batches
+    // on the worker thread.
+    private static final FavoritesWriter sFavoritesWriter = new FavoritesWriter(sWorker);
+
+    // There are only ShortcutInfo in sBgWorkspaceItems.
+    private static final Comparator<ItemInfo> POSITION_COMPARATOR = new Comparator<ItemInfo>() {
+        @Override
+        public int compare(ItemInfo lhs, ItemInfo rhs) {
+            return ((ShortcutInfo) lhs).position - ((ShortcutInfo) rhs).position;
+        }
+    };
+
+    // Set while a sort of sBgWorkspaceItems is posted to the worker thread, so
+    // that moving many items sorts them once.
+    private static final AtomicBoolean sSortPending = new AtomicBoolean();
+    private static final Runnable sSortWorkspaceItems = new Runnable() {
+        public void run() {
+            sSortPending.set(false);
+            final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(sBgWorkspaceItems);
+            Collections.sort(items, POSITION_COMPARATOR);
+            setBgWorkspaceItems(items);
+        }
+    };
+
+    // Bind the model saved by the previous load right away on a cold start and
+    // reconcile it with PackageManager afterwards, see ModelSnapshot.
+    private static final boolean BIND_FROM_SNAPSHOT = true;
+
+    // Keep the app labels in a LabelStore between loads, so that only new
+    // and updated apps need their label loaded from their Resources.
+    private static final boolean PERSIST_LABELS = true;
+
+    // Build the AppInfos of all apps on a pool of helper threads instead of
+    // one by one on sWorkerThread. The pool is bounded by the core count and
+    // its idle threads go away, so it costs nothing once the load is done.
+    // The slices only overlap because IconCache loads labels and renders
+    // icons outside its lock and Utilities renders on a canvas per thread;
+    // with either lock held across a render they would run one at a time.
+    private static final boolean LOAD_ALL_APPS_IN_PARALLEL = true;
+    private static final int LOADER_POOL_SIZE =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService sLoaderPool = createLoaderPool();
+
+    // Bind all apps in sorted batches while they are being loaded instead of
+    // all at once at the end: the first drawer page goes first, then batches
+    // that double in size up to ALL_APPS_MAX_BATCH. The cap keeps the main
+    // thread cost of each batch (classification included) bounded.
+    private static final boolean STREAM_ALL_APPS_BINDING = true;
+    private static final int ALL_APPS_FIRST_BATCH = 16; // until the drawer is measured
+    private static final int ALL_APPS_MAX_BATCH = 64;
+
+    private static ExecutorService createLoaderPool() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(LOADER_POOL_SIZE,
+                LOADER_POOL_SIZE, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "launcher-loader-" + mCount.getAndIncrement());
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Collect the package broadcasts received within PACKAGE_UPDATES_WINDOW
+    // and apply them as one PackageUpdatedTask, so that a batch of updates
+    // costs one PackageManager query and one rebind instead of one per
+    // package.
+    private static final boolean COALESCE_PACKAGE_UPDATES = true;
+    private static final long PACKAGE_UPDATES_WINDOW = 500;
+    private final ArrayList<PackageUpdatedTask> mPendingPackageUpdates =
+            new ArrayList<PackageUpdatedTask>();
+    private final Runnable mFlushPackageUpdates = new Runnable() {
+        public void run() {
+            flushPackageUpdates();
+        }
+    };
+
     // We start off with everything not loaded. After that, we assume that
     // our monitoring of the package manager provides all updates and we never
     // need to do a requery. These are only ever touched from the loader thread.
@@ -100,17 +205,16 @@ public class LauncherModel extends BroadcastReceiver {
 
     // < only access in worker thread >
     AllAppsList mBgAllAppsList;
-
-    // The lock that must be acquired before referencing any static bg data
-    // structures. Unlike other locks, this one can generally be held long-term
-    // because we never expect any of these static data structures to be
-    // referenced outside of the worker thread except on the first load after
-    // configuration change.
-    static final Object sBgLock = new Object();
+    // Category, visibility and launch history of the apps, filled into
+    // mBgAllAppsList as apps are added.
+    private final AppMetadataStore mAppMetadata;
 
     // sBgWorkspaceItems is passed to bindItems, which expects a list of all
     // shortcuts created by LauncherModel that are directly on the home screen.
-    static final ArrayList<ItemInfo> sBgWorkspaceItems = new ArrayList<ItemInfo>();
+    // It is an immutable snapshot: the worker thread, the only writer, builds
+    // a new list for every change and publishes it with setBgWorkspaceItems(),
+    // so any thread may read the current list without locking.
+    static volatile List<ItemInfo> sBgWorkspaceItems = Collections.emptyList();
 
     private static int mMaxPosition;
 
@@ -131,10 +235,25 @@ public class LauncherModel extends BroadcastReceiver {
 
         public void bindAllApplications(ArrayList<AppInfo> apps);
 
+        public void bindMoreApplications(ArrayList<AppInfo> apps);
+
         public void bindAppsAdded(ArrayList<AppInfo> addedApps);
 
         public void bindAppsUpdated(ArrayList<AppInfo> apps);
 
+        /**
+         * Replaces each app of oldApps by the app of newApps at the same
+         * index, a copy with a new title or icon, then binds them as updated.
+         */
+        public void bindAppsReplaced(ArrayList<AppInfo> oldApps, ArrayList<AppInfo> newApps);
+
+        /**
+         * Shows the icon of icons at the same index for each shortcut of
+         * shortcuts, which are bound already.
+         */
+        public void bindShortcutIconsUpdated(ArrayList<ShortcutInfo> shortcuts,
+                ArrayList<IconHandle> icons);
+
         public void bindComponentsRemoved(ArrayList<String> packageNames,
                 ArrayList<AppInfo> appInfos,
                 boolean matchPackageNamesOnly);
@@ -142,6 +261,61 @@ public class LauncherModel extends BroadcastReceiver {
         public void bindSearchablesChanged();
     }
 
+    /** A range of a job that the loader may run on sLoaderPool. */
+    private interface Slice {
+        void run(int start, int end);
+    }
+
+    /**
+     * Binds a number of items on the main thread in chunks sized by a
+     * BindBudget, each chunk in its own message. A bind started on the main
+     * thread is expected to be done when it returns, so it binds everything at
+     * once.
+     */
+    private abstract class ChunkedBindRunnable implements Runnable {
+        private final BindBudget mBudget;
+        private final int mCount;
+        private final boolean mSynchronous;
+        private int mNext;
+
+        ChunkedBindRunnable(BindBudget budget, int count) {
+            mBudget = budget;
+            mCount = count;
+            mSynchronous = sWorkerThread.getThreadId() != Process.myTid();
+        }
+
+        /**
+         * Binds the items [start, end). Returns false to drop the rest of the
+         * bind.
+         */
+        abstract boolean bind(int start, int end);
+
+        public void run() {
+            if (mNext == 0 && !mSynchronous) {
+                mBudget.start();
+            }
+            while (mNext < mCount) {
+                final int end = mSynchronous ? mCount
+                        : Math.min(mCount, mNext + mBudget.nextChunkSize());
+                final long t = System.nanoTime();
+                if (!bind(mNext, end)) {
+                    break;
+                }
+                if (!mSynchronous) {
+                    mBudget.record(end - mNext, System.nanoTime() - t);
+                }
+                mNext = end;
+                if (!mSynchronous && mNext < mCount) {
+                    // Let the frame be drawn, but bind the rest before
+                    // whatever was posted after this bind.
+                    mHandler.postAtFrontOfQueue(this, MAIN_THREAD_BINDING_RUNNABLE);
+                    return;
+                }
+            }
+            mBudget.stop();
+        }
+    }
+
     public interface ItemInfoFilter {
         public boolean filterItem(ItemInfo parent, ItemInfo info, ComponentName cn);
     }
@@ -149,12 +323,16 @@ public class LauncherModel extends BroadcastReceiver {
     LauncherModel(LauncherAppState app, IconCache iconCache, AppFilter appFilter) {
         final Context context = app.getContext();
         mApp = app;
-        mBgAllAppsList = new AllAppsList(iconCache, appFilter);
+        mAppMetadata = new AppMetadataStore(context, sWorker);
+        mBgAllAppsList = new AllAppsList(iconCache, appFilter, mAppMetadata);
         mIconCache = iconCache;
 
         mDefaultIcon = Utilities.createIconBitmap(
                 mIconCache.getFullResDefaultActivityIcon(), context);
 
+        mWorkspaceBindBudget = new BindBudget(context, "workspace");
+        mAppsBindBudget = new BindBudget(context, "apps");
+
         final Resources res = context.getResources();
         Configuration config = res.getConfiguration();
         mPreviousConfigMcc = config.mcc;
@@ -171,7 +349,7 @@ public class LauncherModel extends BroadcastReceiver {
     private void runOnMainThread(Runnable r, int type) {
         if (sWorkerThread.getThreadId() == Process.myTid()) {
             // If we are on the worker thread, post onto the main handler
-            mHandler.post(r);
+            mHandler.post(r, type);
         } else {
             r.run();
         }
@@ -234,15 +412,20 @@ public class LauncherModel extends BroadcastReceiver {
         unbindWorkspaceItemsOnMainThread();
     }
 
+    /**
+     * Publishes items as the new sBgWorkspaceItems. Only called on the worker
+     * thread, items must not be changed afterwards. The items are kept ordered
+     * by position: loadWorkspace reads them in that order, new items get the
+     * next position, and moved items are sorted again.
+     */
+    private static void setBgWorkspaceItems(ArrayList<ItemInfo> items) {
+        sBgWorkspaceItems = Collections.unmodifiableList(items);
+    }
+
     /** Unbinds all the sBgWorkspaceItems on the main thread */
     void unbindWorkspaceItemsOnMainThread() {
-        // Ensure that we don't use the same workspace items data structure on
-        // the main thread by making a copy of workspace items first.
-        final ArrayList<ItemInfo> tmpWorkspaceItems = new ArrayList<ItemInfo>();
-
-        synchronized (sBgLock) {
-            tmpWorkspaceItems.addAll(sBgWorkspaceItems);
-        }
+        // The snapshot is immutable, the main thread can use it as it is.
+        final List<ItemInfo> tmpWorkspaceItems = sBgWorkspaceItems;
         Runnable r = new Runnable() {
             @Override
             public void run() {
@@ -285,16 +468,35 @@ public class LauncherModel extends BroadcastReceiver {
 
     private static void updateShortcutInfoInDB(Context context, final ContentValues values,
             final ShortcutInfo item) {
-        final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
-        final ContentResolver cr = context.getContentResolver();
+        sFavoritesWriter.update(context.getContentResolver(), item.id, values);
+    }
 
-        Runnable r = new Runnable() {
+    /**
+     * Writes the queued changes to the favorites and apps tables on the
+     * worker thread now, rather than after a short delay. Call when the
+     * launcher is paused.
+     */
+    public void flushPendingWrites() {
+        sFavoritesWriter.flushSoon();
+        mAppMetadata.flushSoon();
+    }
+
+    /**
+     * Records a launch of the app intent starts, if it is one.
+     */
+    public void onAppLaunched(Intent intent) {
+        final ComponentName cn = intent.getComponent();
+        if (cn == null) {
+            return;
+        }
+        runOnWorkerThread(new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
+                final AppInfo app = mBgAllAppsList.find(cn);
+                if (app != null) {
+                    mAppMetadata.launched(app);
+                }
             }
-        };
-        runOnWorkerThread(r);
+        });
     }
 
     /**
@@ -306,6 +508,9 @@ public class LauncherModel extends BroadcastReceiver {
         item.position = position;
 
         updateShortcutInfoInDB(context, values, item);
+        if (sSortPending.compareAndSet(false, true)) {
+            runOnWorkerThread(sSortWorkspaceItems);
+        }
     }
 
     /**
@@ -332,10 +537,12 @@ public class LauncherModel extends BroadcastReceiver {
         values.put(LauncherSettings.Favorites._ID, item.id);
         values.put(LauncherSettings.Favorites.POSITION, item.position);
 
+        sFavoritesWriter.insert(cr, item.id, values);
         Runnable r = new Runnable() {
             public void run() {
-                cr.insert(LauncherSettings.Favorites.CONTENT_URI, values);
-                sBgWorkspaceItems.add(item);
+                final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(sBgWorkspaceItems);
+                items.add(item);
+                setBgWorkspaceItems(items);
             }
         };
         runOnWorkerThread(r);
@@ -348,13 +555,13 @@ public class LauncherModel extends BroadcastReceiver {
      * @param item
      */
     public static void deleteItemFromDatabase(Context context, final ItemInfo item) {
-        final ContentResolver cr = context.getContentResolver();
-        final Uri uriToDelete = LauncherSettings.Favorites.getContentUri(item.id, false);
-
+        sFavoritesWriter.delete(context.getContentResolver(), item.id);
         Runnable r = new Runnable() {
             public void run() {
-                cr.delete(uriToDelete, null, null);
-                sBgWorkspaceItems.remove(item);
+                final ArrayList<ItemInfo> items = new ArrayList<ItemInfo>(sBgWorkspaceItems);
+                if (items.remove(item)) {
+                    setBgWorkspaceItems(items);
+                }
             }
         };
         runOnWorkerThread(r);
@@ -418,7 +625,9 @@ public class LauncherModel extends BroadcastReceiver {
         } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)) {
             // First, schedule to add these apps back in.
             String[] packages = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
-            enqueuePackageUpdated(new PackageUpdatedTask(PackageUpdatedTask.OP_ADD, packages));
+            // Not delayed, so that the loader started next sees them.
+            enqueuePackageUpdated(new PackageUpdatedTask(PackageUpdatedTask.OP_ADD, packages),
+                    true);
             // Then, rebind everything.
             startLoaderFromBackground();
         } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
@@ -426,9 +635,9 @@ public class LauncherModel extends BroadcastReceiver {
             enqueuePackageUpdated(new PackageUpdatedTask(
                     PackageUpdatedTask.OP_UNAVAILABLE, packages));
         } else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
-            // If we have changed locale we need to clear out the labels in all
+            // If we have changed locale we need to reload the labels in all
             // apps/workspace.
-            forceReload();
+            relabel();
         } else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
             // Check if configuration change was an mcc/mnc change which would
             // affect app resources and we would need to clear out the labels in
@@ -436,9 +645,9 @@ public class LauncherModel extends BroadcastReceiver {
             // ACTION_LOCALE_CHANGED
             Configuration currentConfig = context.getResources().getConfiguration();
             if (mPreviousConfigMcc != currentConfig.mcc) {
-                Log.d(TAG, "Reload apps on config change. curr_mcc:"
+                Log.d(TAG, "Relabel apps on config change. curr_mcc:"
                         + currentConfig.mcc + " prevmcc:" + mPreviousConfigMcc);
-                forceReload();
+                relabel();
             }
             // Update previousConfig
             mPreviousConfigMcc = currentConfig.mcc;
@@ -463,6 +672,117 @@ public class LauncherModel extends BroadcastReceiver {
         startLoaderFromBackground();
     }
 
+    /**
+     * Reloads the labels of all apps and workspace items and sorts the apps
+     * again, keeping the icons. Only labels depend on the locale and mcc, so
+     * there is no need for a full reload. The renamed apps are copies, bound
+     * as one bindAppsReplaced; the titles of the workspace items are set on
+     * the main thread.
+     */
+    private void relabel() {
+        runOnWorkerThread(new Runnable() {
+            public void run() {
+                if (!mAllAppsLoaded) {
+                    // The apps are not there yet, or were loaded with the old
+                    // locale by a loader that has been stopped.
+                    forceReload();
+                    return;
+                }
+
+                final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                final Context context = mApp.getContext();
+                final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+                mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+                final List<ResolveInfo> matches =
+                        context.getPackageManager().queryIntentActivities(mainIntent, 0);
+
+                final HashMap<ComponentName, ResolveInfo> resolveInfos =
+                        new HashMap<ComponentName, ResolveInfo>();
+                if (matches != null) {
+                    for (ResolveInfo info : matches) {
+                        resolveInfos.put(getComponentNameFromResolveInfo(info), info);
+                    }
+                }
+
+                // The bound apps are drawn by the main thread, the renamed
+                // ones are copies that replace them.
+                final ArrayList<AppInfo> oldApps = new ArrayList<AppInfo>();
+                final ArrayList<AppInfo> modified = new ArrayList<AppInfo>();
+                final IdentityHashMap<AppInfo, AppInfo> replacements =
+                        new IdentityHashMap<AppInfo, AppInfo>();
+                final HashMap<ComponentName, CharSequence> titles =
+                        new HashMap<ComponentName, CharSequence>();
+                for (AppInfo app : mBgAllAppsList.data) {
+                    final ResolveInfo info = resolveInfos.get(app.componentName);
+                    if (info == null) {
+                        continue;
+                    }
+                    final AppInfo copy = new AppInfo(app);
+                    copy.iconBitmap = app.iconBitmap;
+                    mIconCache.updateTitle(copy, info);
+                    if (app.title == null
+                            || !app.title.toString().equals(copy.title.toString())) {
+                        oldApps.add(app);
+                        modified.add(copy);
+                        replacements.put(app, copy);
+                    }
+                    titles.put(app.componentName, copy.title);
+                }
+                mBgAllAppsList.replaceAll(replacements);
+                // The collator follows the new locale.
+                Collections.sort(mBgAllAppsList.data, getAppNameComparator());
+
+                final List<ItemInfo> workspaceItems = sBgWorkspaceItems;
+                final ArrayList<ShortcutInfo> shortcuts = new ArrayList<ShortcutInfo>();
+                final ArrayList<CharSequence> shortcutTitles = new ArrayList<CharSequence>();
+                for (ItemInfo item : workspaceItems) {
+                    final ShortcutInfo info = (ShortcutInfo) item;
+                    if (info.title != null && info.intent != null) {
+                        final CharSequence title = titles.get(info.intent.getComponent());
+                        if (title != null) {
+                            shortcuts.add(info);
+                            shortcutTitles.add(title);
+                        }
+                    }
+                }
+
+                if (PERSIST_LABELS && matches != null) {
+                    LabelStore.write(context,
+                            LabelStore.getPackages(context.getPackageManager(), matches),
+                            mBgAllAppsList.data);
+                }
+
+                final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < shortcuts.size(); i++) {
+                            shortcuts.get(i).title = shortcutTitles.get(i);
+                        }
+                        Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
+                        if (callbacks == cb && cb != null && !modified.isEmpty()) {
+                            callbacks.bindAppsReplaced(oldApps, modified);
+                        }
+                        if (BIND_FROM_SNAPSHOT) {
+                            // The old snapshot was written for the previous
+                            // locale; write it once the titles are set.
+                            runOnWorkerThread(new Runnable() {
+                                public void run() {
+                                    ModelSnapshot.write(context, sBgWorkspaceItems,
+                                            mBgAllAppsList.data);
+                                }
+                            });
+                        }
+                    }
+                });
+
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "relabeled " + modified.size() + " apps in "
+                            + (SystemClock.uptimeMillis() - t) + "ms");
+                }
+            }
+        });
+    }
+
     public void resetLoadedState(boolean resetAllAppsLoaded, boolean resetWorkspaceLoaded) {
         synchronized (mLock) {
             // Stop any existing loaders first, so they don't set mAllAppsLoaded
@@ -563,10 +883,18 @@ public class LauncherModel extends BroadcastReceiver {
         private Context mContext;
         private boolean mIsLaunching;
         private boolean mIsLoadingAndBindingWorkspace;
-        private boolean mStopped;
+        // Read by the sLoaderPool threads too, see createAppInfos().
+        private volatile boolean mStopped;
         private boolean mLoadAndBindStepFinished;
 
+        // IconCache synchronizes on it when the sLoaderPool threads share it.
         private HashMap<Object, CharSequence> mLabelCache;
+        // The packages of the launcher activities the labels of mLabelCache
+        // were checked against, null if the LabelStore has not been read.
+        private HashMap<String, PackageInfo> mPackageInfos;
+        // The launcher activities queried to validate the workspace, kept for
+        // the all apps step of the same load. null once used.
+        private List<ResolveInfo> mLauncherActivities;
 
         LoaderTask(Context context, boolean isLaunching) {
             mContext = context;
@@ -703,9 +1031,20 @@ public class LauncherModel extends BroadcastReceiver {
                     android.os.Process.setThreadPriority(mIsLaunching
                             ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
                 }
-                if (DEBUG_LOADERS)
-                    Log.d(TAG, "step 1: loading workspace");
-                loadAndBindWorkspace();
+                ModelSnapshot snapshot = null;
+                if (BIND_FROM_SNAPSHOT && !mWorkspaceLoaded && !mAllAppsLoaded) {
+                    snapshot = ModelSnapshot.read(mContext);
+                }
+
+                if (snapshot != null) {
+                    if (DEBUG_LOADERS)
+                        Log.d(TAG, "step 1: binding snapshot");
+                    bindSnapshot(snapshot);
+                } else {
+                    if (DEBUG_LOADERS)
+                        Log.d(TAG, "step 1: loading workspace");
+                    loadAndBindWorkspace();
+                }
 
                 if (mStopped) {
                     break keep_running;
@@ -724,9 +1063,29 @@ public class LauncherModel extends BroadcastReceiver {
                 waitForIdle();
 
                 // second step
-                if (DEBUG_LOADERS)
-                    Log.d(TAG, "step 2: loading all apps");
-                loadAndBindAllApps();
+                if (snapshot != null) {
+                    if (DEBUG_LOADERS)
+                        Log.d(TAG, "step 2: reconciling snapshot");
+                    reconcileSnapshot(snapshot);
+                } else {
+                    if (DEBUG_LOADERS)
+                        Log.d(TAG, "step 2: loading all apps");
+                    loadAndBindAllApps();
+                }
+
+                if (!mStopped && mWorkspaceLoaded && mAllAppsLoaded) {
+                    writeSnapshot();
+                }
+                if (!mStopped) {
+                    // Rasterize the built-in icons the next load may need.
+                    BuiltinIconStore.prepare(mContext, IconConfig.getIconSize());
+                }
+                if (!mStopped && mAllAppsLoaded && mPackageInfos != null) {
+                    LabelStore.write(mContext, mPackageInfos, mBgAllAppsList.data);
+                }
+                // Every icon the launcher shows has been asked for once both
+                // parts are loaded, so the unused stored icons can go.
+                mIconCache.releaseStoredIcons(!mStopped && mWorkspaceLoaded && mAllAppsLoaded);
 
                 // Restore the default thread priority after we are done loading
                 // items
@@ -789,9 +1148,7 @@ public class LauncherModel extends BroadcastReceiver {
 
         /** Clears all the sBg data structures */
         private void clearSBgDataStructures() {
-            synchronized (sBgLock) {
-                sBgWorkspaceItems.clear();
-            }
+            setBgWorkspaceItems(new ArrayList<ItemInfo>());
         }
 
         /** Returns whether this is an upgrade path */
@@ -804,137 +1161,213 @@ public class LauncherModel extends BroadcastReceiver {
 
             // Make sure the default workspace is loaded, if needed
             LauncherAppState.getLauncherProvider().loadDefaultFavoritesIfNecessary(0);
+            // Read what the user changed last, not what is still queued.
+            sFavoritesWriter.flushNow();
+
+            // Built without holding anything and published at the end, so the
+            // binder calls made for every row do not block any reader.
+            final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+            mMaxPosition = -1;
+
+            final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI;
+            if (DEBUG_LOADERS)
+                Log.d(TAG, "loading model from " + contentUri);
+            // Only the columns used, in order, straight from the position index.
+            final Cursor c = contentResolver.query(contentUri,
+                    LauncherProvider.WORKSPACE_PROJECTION, null, null,
+                    LauncherSettings.Favorites.POSITION + " ASC");
+
+            try {
+                final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+                final int intentIndex = c.getColumnIndexOrThrow
+                        (LauncherSettings.Favorites.INTENT);
+                final int iconNameIndex = c.getColumnIndexOrThrow(
+                        LauncherSettings.Favorites.ICON_NAME);
+                final int positionIndex = c.getColumnIndexOrThrow(
+                        LauncherSettings.Favorites.POSITION);
+                final int packageNameIndex = c.getColumnIndexOrThrow(
+                        LauncherSettings.Favorites.PACKAGE_NAME);
+                final int classNameIndex = c.getColumnIndexOrThrow(
+                        LauncherSettings.Favorites.CLASS_NAME);
+
+                // Every favorite is checked against this one set; only those
+                // launching something else cost binder calls.
+                final HashSet<ComponentName> launchable = getLaunchableComponents(manager);
+
+                ShortcutInfo info;
+                String intentDescription;
+                long id;
+                Intent intent;
+                String iconName;
+                String packageName;
+                ComponentName cn;
+                int iconId;
+                int position;
+
+                while (!mStopped && c.moveToNext()) {
+                    try {
 
-            synchronized (sBgLock) {
-                clearSBgDataStructures();
-                mMaxPosition = -1;
-
-                final Uri contentUri = LauncherSettings.Favorites.CONTENT_URI;
-                if (DEBUG_LOADERS)
-                    Log.d(TAG, "loading model from " + contentUri);
-                final Cursor c = contentResolver.query(contentUri, null, null, null, null);
-
-                try {
-                    final int idIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
-                    final int intentIndex = c.getColumnIndexOrThrow
-                            (LauncherSettings.Favorites.INTENT);
-                    final int iconNameIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.ICON_NAME);
-                    final int positionIndex = c.getColumnIndexOrThrow(
-                            LauncherSettings.Favorites.POSITION);
-
-                    ShortcutInfo info;
-                    String intentDescription;
-                    long id;
-                    Intent intent;
-                    String iconName;
-                    int iconId;
-                    int position;
-
-                    while (!mStopped && c.moveToNext()) {
-                        try {
-
-                            intentDescription = c.getString(intentIndex);
-
-                            if ("*BROWSER*".equalsIgnoreCase(intentDescription)) {
-                                intent = null;
-                            } else {
-                                try {
-                                    intent = Intent.parseUri(intentDescription, 0);
-                                    ComponentName cn = intent.getComponent();
-
-                                    if (cn != null && !isValidPackageComponent(manager, cn)) {
-                                        continue;
-                                    }
-                                } catch (URISyntaxException e) {
-                                    Logger.addDumpLog(TAG, "Invalid uri: "
-                                            + intentDescription, true);
+                        intentDescription = c.getString(intentIndex);
+                        packageName = c.getString(packageNameIndex);
+
+                        if ("*BROWSER*".equalsIgnoreCase(intentDescription)) {
+                            intent = null;
+                        } else if (packageName != null) {
+                            // A plain launch intent, made again from its
+                            // component rather than parsed.
+                            cn = new ComponentName(packageName, c.getString(classNameIndex));
+                            if (!launchable.contains(cn)
+                                    && !isValidPackageComponent(manager, cn)) {
+                                continue;
+                            }
+                            intent = ShortcutInfo.makeLaunchIntent(cn);
+                        } else {
+                            try {
+                                intent = Intent.parseUri(intentDescription, 0);
+                                cn = intent.getComponent();
+
+                                if (cn != null && !launchable.contains(cn)
+                                        && !isValidPackageComponent(manager, cn)) {
                                     continue;
                                 }
+                            } catch (URISyntaxException e) {
+                                Logger.addDumpLog(TAG, "Invalid uri: "
+                                        + intentDescription, true);
+                                continue;
                             }
+                        }
 
-                            id = c.getLong(idIndex);
-                            iconName = c.getString(iconNameIndex);
-                            position = c.getInt(positionIndex);
-
-                            iconId = IconNameOrId.getIconId(iconName);
+                        id = c.getLong(idIndex);
+                        iconName = c.getString(iconNameIndex);
+                        position = c.getInt(positionIndex);
 
-                            info = getShortcutInfo(intent, iconId);
+                        iconId = IconNameOrId.getIconId(iconName);
 
-                            if (info != null) {
-                                info.id = id;
-                                info.intent = intent;
-                                info.position = position;
-                                mMaxPosition++;
+                        info = getShortcutInfo(intent, iconId);
 
-                                sBgWorkspaceItems.add(info);
-                                if ("*BROWSER*".equalsIgnoreCase(intentDescription)) {
-                                    info.title = "*BROWSER*";
-                                }
+                        if (info != null) {
+                            info.id = id;
+                            info.intent = intent;
+                            info.position = position;
+                            mMaxPosition++;
 
-                            } else {
-                                throw new RuntimeException("Unexpected null ShortcutInfo");
+                            workspaceItems.add(info);
+                            if ("*BROWSER*".equalsIgnoreCase(intentDescription)) {
+                                info.title = "*BROWSER*";
                             }
-                        } catch (Exception e) {
-                            Logger.addDumpLog(TAG,
-                                    "Desktop items loading interrupted: " + e, true);
+
+                        } else {
+                            throw new RuntimeException("Unexpected null ShortcutInfo");
                         }
-                    }
-                } finally {
-                    if (c != null) {
-                        c.close();
+                    } catch (Exception e) {
+                        Logger.addDumpLog(TAG,
+                                "Desktop items loading interrupted: " + e, true);
                     }
                 }
-
-                // Break early if we've stopped loading
-                if (mStopped) {
-                    clearSBgDataStructures();
-                    return;
+            } finally {
+                if (c != null) {
+                    c.close();
                 }
+            }
 
-                if (DEBUG_LOADERS) {
-                    Logger.debug(TAG, "loaded workspace in " + (SystemClock.uptimeMillis() - t)
-                            + "ms");
-                }
+            // Break early if we've stopped loading
+            if (mStopped) {
+                clearSBgDataStructures();
+                return;
+            }
+            setBgWorkspaceItems(workspaceItems);
+
+            if (DEBUG_LOADERS) {
+                Logger.debug(TAG, "loaded workspace in " + (SystemClock.uptimeMillis() - t)
+                        + "ms");
             }
         }
 
         /**
-         * Sorts the set of items by workspace (spatially from top to bottom,
-         * left to right)
+         * Returns the enabled launcher activities: those of all apps when they
+         * are loaded, or else those of one query, which the all apps step then
+         * reuses.
          */
-        private void sortWorkspaceItemsSpatially(ArrayList<ItemInfo> workspaceItems) {
-            // Sort items by position.
-            Collections.sort(workspaceItems, new Comparator<ItemInfo>() {
-                @Override
-                public int compare(ItemInfo lhs, ItemInfo rhs) {
-                    // There are only ShortcutInfo in workspaceItems.
-                    ShortcutInfo left = (ShortcutInfo) lhs;
-                    ShortcutInfo right = (ShortcutInfo) rhs;
-                    return (int) (left.position - right.position);
+        private HashSet<ComponentName> getLaunchableComponents(PackageManager manager) {
+            final HashSet<ComponentName> launchable = new HashSet<ComponentName>();
+            if (mAllAppsLoaded) {
+                for (AppInfo app : mBgAllAppsList.data) {
+                    launchable.add(app.componentName);
                 }
-            });
+                return launchable;
+            }
+            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            mLauncherActivities = manager.queryIntentActivities(mainIntent, 0);
+            if (mLauncherActivities != null) {
+                for (ResolveInfo info : mLauncherActivities) {
+                    launchable.add(new ComponentName(info.activityInfo.packageName,
+                            info.activityInfo.name));
+                }
+            }
+            return launchable;
         }
 
         private void bindWorkspaceItems(final Callbacks oldCallbacks,
                 final ArrayList<ItemInfo> workspaceItems) {
             // Bind the workspace items
-            int N = workspaceItems.size();
-            for (int i = 0; i < N; i += ITEMS_CHUNK) {
-                final int start = i;
-                final int chunkSize = (i + ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N - i);
-                final Runnable r = new Runnable() {
-                    @Override
-                    public void run() {
-                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                        if (callbacks != null) {
-                            callbacks.bindItems(workspaceItems, start, start + chunkSize,
-                                    false);
-                        }
+            final Runnable r = new ChunkedBindRunnable(mWorkspaceBindBudget,
+                    workspaceItems.size()) {
+                @Override
+                boolean bind(int start, int end) {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks == null) {
+                        return false;
                     }
-                };
-                runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+                    callbacks.bindItems(workspaceItems, start, end, false);
+                    return true;
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
+        }
+
+        /**
+         * Binds apps on the main thread in budgeted chunks, after everything
+         * posted so far. If replace is set, the first chunk replaces the bound
+         * apps through bindAllApplications; the others, or all of them
+         * otherwise, go through bindMoreApplications.
+         */
+        private void bindAppsInChunks(final Callbacks oldCallbacks,
+                final ArrayList<AppInfo> apps, final boolean replace) {
+            if (apps.isEmpty()) {
+                if (replace) {
+                    runOnMainThread(new Runnable() {
+                        public void run() {
+                            Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                            if (callbacks != null) {
+                                callbacks.bindAllApplications(new ArrayList<AppInfo>());
+                            }
+                        }
+                    }, MAIN_THREAD_BINDING_RUNNABLE);
+                }
+                return;
             }
+
+            final Runnable r = new ChunkedBindRunnable(mAppsBindBudget, apps.size()) {
+                @Override
+                boolean bind(int start, int end) {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks == null) {
+                        Log.i(TAG, "not binding apps: no Launcher activity");
+                        return false;
+                    }
+                    // The callbacks keep the list.
+                    final ArrayList<AppInfo> chunk =
+                            new ArrayList<AppInfo>(apps.subList(start, end));
+                    if (replace && start == 0) {
+                        callbacks.bindAllApplications(chunk);
+                    } else {
+                        callbacks.bindMoreApplications(chunk);
+                    }
+                    return true;
+                }
+            };
+            runOnMainThread(r, MAIN_THREAD_BINDING_RUNNABLE);
         }
 
         /**
@@ -959,13 +1392,8 @@ public class LauncherModel extends BroadcastReceiver {
             // startBinding() below.
             unbindWorkspaceItemsOnMainThread();
 
-            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
-
-            synchronized (sBgLock) {
-                workspaceItems.addAll(sBgWorkspaceItems);
-            }
-
-            sortWorkspaceItemsSpatially(workspaceItems);
+            // Kept ordered by position, see setBgWorkspaceItems().
+            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>(sBgWorkspaceItems);
 
             // Tell the workspace that we're about to start binding items
             r = new Runnable() {
@@ -1031,25 +1459,7 @@ public class LauncherModel extends BroadcastReceiver {
             // shallow copy
             @SuppressWarnings("unchecked")
             final ArrayList<AppInfo> list = (ArrayList<AppInfo>) mBgAllAppsList.data.clone();
-            Runnable r = new Runnable() {
-                public void run() {
-                    final long t = SystemClock.uptimeMillis();
-                    final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    if (callbacks != null) {
-                        callbacks.bindAllApplications(list);
-                    }
-                    if (DEBUG_LOADERS) {
-                        Log.d(TAG, "bound all " + list.size() + " apps from cache in "
-                                + (SystemClock.uptimeMillis() - t) + "ms");
-                    }
-                }
-            };
-            boolean isRunningOnMainThread = !(sWorkerThread.getThreadId() == Process.myTid());
-            if (isRunningOnMainThread) {
-                r.run();
-            } else {
-                mHandler.post(r);
-            }
+            bindAppsInChunks(oldCallbacks, list, true);
         }
 
         private void loadAllApps() {
@@ -1064,39 +1474,34 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             final PackageManager packageManager = mContext.getPackageManager();
-            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
 
             // Clear the list of apps
             mBgAllAppsList.clear();
 
-            // Query for the set of apps
-            final long qiaTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
-            List<ResolveInfo> apps = packageManager.queryIntentActivities(mainIntent, 0);
-            if (DEBUG_LOADERS) {
-                Log.d(TAG, "queryIntentActivities took "
-                        + (SystemClock.uptimeMillis() - qiaTime) + "ms");
-                Log.d(TAG, "queryIntentActivities got " + apps.size() + " apps");
-            }
+            // Query for the set of apps, sorted by name
+            List<ResolveInfo> apps = queryLauncherActivities(packageManager);
             // Fail if we don't have any apps
             if (apps == null || apps.isEmpty()) {
                 return;
             }
-            // Sort the applications by name
-            final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
-            Collections.sort(apps,
-                    new LauncherModel.ShortcutNameComparator(packageManager, mLabelCache));
-            if (DEBUG_LOADERS) {
-                Log.d(TAG, "sort took "
-                        + (SystemClock.uptimeMillis() - sortTime) + "ms");
+
+            if (STREAM_ALL_APPS_BINDING) {
+                loadAndStreamAllApps(oldCallbacks, packageManager, apps);
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "Icons processed in "
+                            + (SystemClock.uptimeMillis() - loadTime) + "ms");
+                }
+                return;
             }
 
             // Create the ApplicationInfos
-            for (int i = 0; i < apps.size(); i++) {
-                ResolveInfo app = apps.get(i);
-                // This builds the icon bitmaps.
-                mBgAllAppsList.add(new AppInfo(packageManager, app,
-                        mIconCache, mLabelCache));
+            final AppInfo[] infos = createAppInfos(packageManager, apps);
+            if (mStopped) {
+                return;
+            }
+            // Add them in sorted order, AllAppsList is only touched here.
+            for (AppInfo info : infos) {
+                mBgAllAppsList.add(info);
             }
 
             // Huh? Shouldn't this be inside the Runnable below?
@@ -1126,24 +1531,443 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
 
-        public void dumpState() {
-            synchronized (sBgLock) {
-                Log.d(TAG, "mLoaderTask.mContext=" + mContext);
-                Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
-                Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
-                Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished=" + mLoadAndBindStepFinished);
-                Log.d(TAG, "mItems size=" + sBgWorkspaceItems.size());
+        /**
+         * Builds the AppInfos of apps batch by batch and binds every batch as
+         * soon as it is ready. The first batch goes through
+         * bindAllApplications, the following ones through
+         * bindMoreApplications.
+         */
+        private void loadAndStreamAllApps(final Callbacks oldCallbacks,
+                PackageManager packageManager, List<ResolveInfo> apps) {
+            final int count = apps.size();
+            int batchSize = GridConfig.getCountPerPageOfDrawer();
+            if (batchSize <= 0) {
+                batchSize = ALL_APPS_FIRST_BATCH;
+            }
+
+            int start = 0;
+            while (start < count) {
+                final int end = Math.min(count, start + batchSize);
+                final AppInfo[] infos = createAppInfos(packageManager, apps.subList(start, end));
+                if (mStopped) {
+                    return;
+                }
+                for (AppInfo info : infos) {
+                    mBgAllAppsList.add(info);
+                }
+
+                final ArrayList<AppInfo> added = mBgAllAppsList.added;
+                mBgAllAppsList.added = new ArrayList<AppInfo>();
+                bindAppsInChunks(oldCallbacks, added, start == 0);
+
+                start = end;
+                batchSize = Math.min(batchSize * 2, ALL_APPS_MAX_BATCH);
             }
         }
+
+        /**
+         * Queries the MAIN/LAUNCHER activities and sorts them by label.
+         */
+        private List<ResolveInfo> queryLauncherActivities(PackageManager packageManager) {
+            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+            final long qiaTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            // Package changes wait for the loader on the worker thread, so the
+            // activities queried by loadWorkspace are still current.
+            List<ResolveInfo> apps = mLauncherActivities != null
+                    ? mLauncherActivities
+                    : packageManager.queryIntentActivities(mainIntent, 0);
+            mLauncherActivities = null;
+            if (apps == null) {
+                return null;
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "queryIntentActivities took "
+                        + (SystemClock.uptimeMillis() - qiaTime) + "ms");
+                Log.d(TAG, "queryIntentActivities got " + apps.size() + " apps");
+            }
+
+            if (PERSIST_LABELS) {
+                final long labelTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+                mPackageInfos = LabelStore.getPackages(packageManager, apps);
+                final int count = LabelStore.read(mContext, mPackageInfos, mLabelCache);
+                if (DEBUG_LOADERS) {
+                    Log.d(TAG, "read " + count + " stored labels in "
+                            + (SystemClock.uptimeMillis() - labelTime) + "ms");
+                }
+            }
+
+            final long sortTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            Collections.sort(apps,
+                    new LauncherModel.ShortcutNameComparator(packageManager, mLabelCache));
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "sort took "
+                        + (SystemClock.uptimeMillis() - sortTime) + "ms");
+            }
+            return apps;
+        }
+
+        /**
+         * Builds an AppInfo (label, flags and icon bitmap) for every entry of
+         * apps, keeping the order of apps. Entries are left null once the task
+         * has been stopped.
+         */
+        private AppInfo[] createAppInfos(final PackageManager packageManager,
+                final List<ResolveInfo> apps) {
+            final AppInfo[] infos = new AppInfo[apps.size()];
+            runInSlices(apps.size(), new Slice() {
+                public void run(int start, int end) {
+                    final Locale locale = Locale.getDefault();
+                    final Collator collator = Collator.getInstance(locale);
+                    for (int i = start; i < end && !mStopped; i++) {
+                        // This builds the icon bitmaps.
+                        infos[i] = new AppInfo(packageManager, apps.get(i), mIconCache,
+                                mLabelCache);
+                        // And the sort key, so that sorting on the main thread
+                        // does not have to.
+                        infos[i].getSortKey(collator, locale);
+                    }
+                }
+            });
+            return infos;
+        }
+
+        /**
+         * Splits [0, count) into contiguous slices and runs them on sLoaderPool
+         * when LOAD_ALL_APPS_IN_PARALLEL is set, or on the calling thread
+         * otherwise. Returns once every slice has run.
+         */
+        private void runInSlices(int count, final Slice slice) {
+            final int slices = LOAD_ALL_APPS_IN_PARALLEL ? Math.min(LOADER_POOL_SIZE, count) : 1;
+            if (slices <= 1) {
+                slice.run(0, count);
+                return;
+            }
+
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            final CountDownLatch done = new CountDownLatch(slices);
+            final int sliceSize = (count + slices - 1) / slices;
+            for (int i = 0; i < slices; i++) {
+                final int start = i * sliceSize;
+                final int end = Math.min(count, start + sliceSize);
+                sLoaderPool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            slice.run(start, end);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            // The slices use the arrays of the caller: wait for all of them
+            // even if interrupted, and keep the interrupt for the caller.
+            boolean interrupted = false;
+            boolean success = false;
+            while (!success) {
+                try {
+                    done.await();
+                    success = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "ran " + count + " items on " + slices + " threads in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+        }
+
+        /**
+         * Fills the model from a snapshot and binds it. App icons are not part
+         * of the snapshot; they are taken from the icons IconCache stored on
+         * disk, and the fallback icon is used for the apps that have none.
+         */
+        private void bindSnapshot(ModelSnapshot snapshot) {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            mIsLoadingAndBindingWorkspace = true;
+
+            final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+            mMaxPosition = -1;
+            for (ShortcutInfo info : snapshot.workspaceItems) {
+                if (info.mIconId != -1) {
+                    info.mIcon = mIconCache.getBuiltinIcon(info.mIconId,
+                            IconConfig.getIconSize());
+                } else if (info.intent != null && info.intent.getComponent() != null) {
+                    info.mIcon = mIconCache.getStoredIconHandle(info.intent.getComponent());
+                }
+                mMaxPosition++;
+                workspaceItems.add(info);
+            }
+            setBgWorkspaceItems(workspaceItems);
+
+            mBgAllAppsList.clear();
+            for (AppInfo app : snapshot.apps) {
+                final Bitmap icon = mIconCache.getStoredIcon(app.componentName);
+                app.iconBitmap = icon != null ? icon : mDefaultIcon;
+                mBgAllAppsList.add(app);
+            }
+            mBgAllAppsList.added.clear();
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "restored " + snapshot.workspaceItems.size() + " items and "
+                        + snapshot.apps.size() + " apps from snapshot in "
+                        + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+
+            bindWorkspace();
+            onlyBindAllApps();
+        }
+
+        /**
+         * Loads the real model behind a bound snapshot and binds only what
+         * differs: the workspace is rebound if the favorites changed, and apps
+         * go through bindAppsAdded, bindAppsReplaced (which also delivers the
+         * rendered icons) and bindComponentsRemoved.
+         */
+        private void reconcileSnapshot(ModelSnapshot snapshot) {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null) {
+                // This launcher has exited and nobody bothered to tell us. Just
+                // bail.
+                Log.w(TAG, "LoaderTask running with no launcher (reconcileSnapshot)");
+                return;
+            }
+
+            // The favorites database is the truth for the workspace.
+            loadWorkspace();
+            if (mStopped) {
+                return;
+            }
+            final List<ItemInfo> loadedItems = sBgWorkspaceItems;
+            final boolean rebindWorkspace = !isSameWorkspace(snapshot.workspaceItems, loadedItems);
+            if (!rebindWorkspace) {
+                // The bound items are still valid; keep them since the
+                // views are tagged with them, but show the app icons that
+                // loadWorkspace got from the icon cache instead of the stored
+                // ones, which may be out of date. The bubbles take them on
+                // the main thread.
+                final ArrayList<ShortcutInfo> shortcuts = new ArrayList<ShortcutInfo>();
+                final ArrayList<IconHandle> icons = new ArrayList<IconHandle>();
+                for (int i = 0; i < loadedItems.size(); i++) {
+                    final ShortcutInfo loaded = (ShortcutInfo) loadedItems.get(i);
+                    final ShortcutInfo info = snapshot.workspaceItems.get(i);
+                    if (info.mIconId == -1 && loaded.mIcon != null) {
+                        shortcuts.add(info);
+                        icons.add(loaded.mIcon);
+                    }
+                }
+                setBgWorkspaceItems(new ArrayList<ItemInfo>(snapshot.workspaceItems));
+                if (!shortcuts.isEmpty()) {
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                            if (callbacks != null) {
+                                callbacks.bindShortcutIconsUpdated(shortcuts, icons);
+                            }
+                        }
+                    });
+                }
+            }
+            if (rebindWorkspace) {
+                if (DEBUG_LOADERS)
+                    Log.d(TAG, "workspace changed since snapshot, rebinding");
+                bindWorkspace();
+            }
+            synchronized (LoaderTask.this) {
+                if (mStopped) {
+                    return;
+                }
+                mWorkspaceLoaded = true;
+            }
+
+            final PackageManager packageManager = mContext.getPackageManager();
+            final List<ResolveInfo> apps = queryLauncherActivities(packageManager);
+            if (apps == null) {
+                return;
+            }
+
+            final HashMap<ComponentName, AppInfo> bound = new HashMap<ComponentName, AppInfo>();
+            for (AppInfo app : mBgAllAppsList.data) {
+                bound.put(app.componentName, app);
+            }
+
+            // Render every app into a new AppInfo: the bound ones are drawn
+            // by the main thread and must not change under it.
+            final AppInfo[] infos = new AppInfo[apps.size()];
+            runInSlices(apps.size(), new Slice() {
+                public void run(int start, int end) {
+                    for (int i = start; i < end && !mStopped; i++) {
+                        infos[i] = new AppInfo(packageManager, apps.get(i), mIconCache,
+                                mLabelCache);
+                    }
+                }
+            });
+            if (mStopped) {
+                return;
+            }
+
+            // Only the apps that differ from their snapshot are swapped in.
+            final ArrayList<AppInfo> newApps = new ArrayList<AppInfo>();
+            final IdentityHashMap<AppInfo, AppInfo> replacements =
+                    new IdentityHashMap<AppInfo, AppInfo>();
+            diffSnapshotApps(bound, infos, mIconCache, newApps, replacements);
+            for (AppInfo info : newApps) {
+                mBgAllAppsList.add(info);
+            }
+            final ArrayList<AppInfo> oldApps = new ArrayList<AppInfo>(replacements.keySet());
+            final ArrayList<AppInfo> modified = new ArrayList<AppInfo>(oldApps.size());
+            for (AppInfo old : oldApps) {
+                modified.add(replacements.get(old));
+            }
+            mBgAllAppsList.replaceAll(replacements);
+            mBgAllAppsList.removeAll(bound.values());
+            Collections.sort(mBgAllAppsList.data, getAppNameComparator());
+
+            final ArrayList<AppInfo> added = new ArrayList<AppInfo>(mBgAllAppsList.added);
+            final ArrayList<AppInfo> removed = new ArrayList<AppInfo>(mBgAllAppsList.removed);
+            mBgAllAppsList.added.clear();
+            mBgAllAppsList.removed.clear();
+
+            synchronized (LoaderTask.this) {
+                if (mStopped) {
+                    return;
+                }
+                mAllAppsLoaded = true;
+            }
+
+            if (!added.isEmpty()) {
+                addAndBindAddedApps(mContext, oldCallbacks, added);
+            }
+            if (!modified.isEmpty()) {
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.bindAppsReplaced(oldApps, modified);
+                        }
+                    }
+                });
+            }
+            if (!removed.isEmpty()) {
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.bindComponentsRemoved(new ArrayList<String>(), removed,
+                                    false);
+                        }
+                    }
+                });
+            }
+
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "reconciled snapshot in " + (SystemClock.uptimeMillis() - t)
+                        + "ms: " + added.size() + " added, " + modified.size()
+                        + " updated, " + removed.size() + " removed");
+            }
+        }
+
+        /**
+         * Returns whether the loaded workspace items are the ones of the
+         * snapshot, comparing what is stored in the favorites database.
+         */
+        private boolean isSameWorkspace(ArrayList<ShortcutInfo> snapshotItems,
+                List<ItemInfo> loadedItems) {
+            final int N = snapshotItems.size();
+            if (N != loadedItems.size()) {
+                return false;
+            }
+            for (int i = 0; i < N; i++) {
+                final ShortcutInfo a = snapshotItems.get(i);
+                final ShortcutInfo b = (ShortcutInfo) loadedItems.get(i);
+                if (a.id != b.id || a.position != b.position || a.mIconId != b.mIconId) {
+                    return false;
+                }
+                final String uriA = a.intent != null ? a.intent.toUri(0) : null;
+                final String uriB = b.intent != null ? b.intent.toUri(0) : null;
+                if (uriA == null ? uriB != null : !uriA.equals(uriB)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeSnapshot() {
+            final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
+            ModelSnapshot.write(mContext, sBgWorkspaceItems, mBgAllAppsList.data);
+            if (DEBUG_LOADERS) {
+                Log.d(TAG, "wrote snapshot in " + (SystemClock.uptimeMillis() - t) + "ms");
+            }
+        }
+
+        public void dumpState() {
+            Log.d(TAG, "mLoaderTask.mContext=" + mContext);
+            Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
+            Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
+            Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished=" + mLoadAndBindStepFinished);
+            Log.d(TAG, "mItems size=" + sBgWorkspaceItems.size());
+        }
     }
 
     void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        enqueuePackageUpdated(task, false);
+    }
+
+    /**
+     * Queues task with the other package updates of the window. If
+     * immediate, the window is closed now: the queued tasks are posted to the
+     * worker before anything the caller posts next, such as a loader.
+     */
+    void enqueuePackageUpdated(PackageUpdatedTask task, boolean immediate) {
+        if (!COALESCE_PACKAGE_UPDATES) {
+            sWorker.post(task);
+            return;
+        }
+        synchronized (mPendingPackageUpdates) {
+            final boolean scheduled = !mPendingPackageUpdates.isEmpty();
+            mPendingPackageUpdates.add(task);
+            if (immediate) {
+                sWorker.removeCallbacks(mFlushPackageUpdates);
+                sWorker.post(mFlushPackageUpdates);
+            } else if (!scheduled) {
+                sWorker.postDelayed(mFlushPackageUpdates, PACKAGE_UPDATES_WINDOW);
+            }
+        }
+    }
+
+    /**
+     * Merges the package updates received during the last window into one
+     * task and runs it. Runs on the worker thread.
+     */
+    private void flushPackageUpdates() {
+        final PackageUpdatedTask merged;
+        synchronized (mPendingPackageUpdates) {
+            if (mPendingPackageUpdates.isEmpty()) {
+                return;
+            }
+            merged = new PackageUpdatedTask();
+            for (PackageUpdatedTask task : mPendingPackageUpdates) {
+                merged.merge(task);
+            }
+            mPendingPackageUpdates.clear();
+        }
+        if (DEBUG_LOADERS) {
+            Log.d(TAG, "flushing package updates " + merged.mOps);
+        }
+        merged.run();
     }
 
     private class PackageUpdatedTask implements Runnable {
-        int mOp;
-        String[] mPackages;
+        // The operation for each package, in the order they were received.
+        final LinkedHashMap<String, Integer> mOps = new LinkedHashMap<String, Integer>();
 
         public static final int OP_NONE = 0;
         public static final int OP_ADD = 1;
@@ -1152,56 +1976,120 @@ public class LauncherModel extends BroadcastReceiver {
         public static final int OP_UNAVAILABLE = 4; // external media unmounted
 
         public PackageUpdatedTask(int op, String[] packages) {
-            mOp = op;
-            mPackages = packages;
+            for (String packageName : packages) {
+                mOps.put(packageName, op);
+            }
+        }
+
+        PackageUpdatedTask() {
+        }
+
+        /**
+         * Adds the operations of task, which happened after the ones of this
+         * task. The last operation on a package wins, except that an add
+         * following another operation becomes an update: the package may
+         * already be in the list, and updatePackage() handles both cases.
+         */
+        void merge(PackageUpdatedTask task) {
+            for (Map.Entry<String, Integer> e : task.mOps.entrySet()) {
+                final String packageName = e.getKey();
+                int op = e.getValue();
+                if (op == OP_ADD && mOps.containsKey(packageName)) {
+                    op = OP_UPDATE;
+                }
+                // Re-insert so that the package moves to its latest position.
+                mOps.remove(packageName);
+                mOps.put(packageName, op);
+            }
         }
 
         public void run() {
             final Context context = mApp.getContext();
 
-            final String[] packages = mPackages;
-            final int N = packages.length;
-            switch (mOp) {
-                case OP_ADD:
-                    for (int i = 0; i < N; i++) {
+            // One PackageManager query for all the packages that are added or
+            // updated, instead of one per package.
+            HashMap<String, List<ResolveInfo>> matches = null;
+            final ArrayList<String> queried = new ArrayList<String>();
+            for (Map.Entry<String, Integer> e : mOps.entrySet()) {
+                if (e.getValue() == OP_ADD || e.getValue() == OP_UPDATE) {
+                    queried.add(e.getKey());
+                }
+            }
+            if (queried.size() > 1) {
+                matches = AllAppsList.findActivitiesForPackages(context, queried);
+            }
+
+            final ArrayList<String> removedPackageNames = new ArrayList<String>();
+            boolean packageRemoved = false;
+            for (Map.Entry<String, Integer> e : mOps.entrySet()) {
+                final String packageName = e.getKey();
+                switch (e.getValue()) {
+                    case OP_ADD:
                         if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mBgAllAppsList.addPackage(context, packages[i]);
-                    }
-                    break;
-                case OP_UPDATE:
-                    for (int i = 0; i < N; i++) {
+                            Log.d(TAG, "mAllAppsList.addPackage " + packageName);
+                        if (matches != null) {
+                            mBgAllAppsList.addPackage(context, packageName,
+                                    matches.get(packageName));
+                        } else {
+                            mBgAllAppsList.addPackage(context, packageName);
+                        }
+                        break;
+                    case OP_UPDATE:
                         if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
-                        mBgAllAppsList.updatePackage(context, packages[i]);
-                    }
-                    break;
-                case OP_REMOVE:
-                case OP_UNAVAILABLE:
-                    for (int i = 0; i < N; i++) {
+                            Log.d(TAG, "mAllAppsList.updatePackage " + packageName);
+                        if (matches != null) {
+                            mBgAllAppsList.updatePackage(context, packageName,
+                                    matches.get(packageName));
+                        } else {
+                            mBgAllAppsList.updatePackage(context, packageName);
+                        }
+                        break;
+                    case OP_REMOVE:
+                        packageRemoved = true;
+                        // fall through
+                    case OP_UNAVAILABLE:
                         if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
-                        mBgAllAppsList.removePackage(packages[i]);
-                    }
-                    break;
+                            Log.d(TAG, "mAllAppsList.removePackage " + packageName);
+                        mBgAllAppsList.removePackage(packageName);
+                        if (e.getValue() == OP_REMOVE) {
+                            mAppMetadata.removePackage(packageName);
+                        }
+                        removedPackageNames.add(packageName);
+                        break;
+                }
             }
 
             ArrayList<AppInfo> added = null;
             ArrayList<AppInfo> modified = null;
+            ArrayList<AppInfo> replaced = null;
             final ArrayList<AppInfo> removedApps = new ArrayList<AppInfo>();
 
             if (mBgAllAppsList.added.size() > 0) {
                 added = new ArrayList<AppInfo>(mBgAllAppsList.added);
                 mBgAllAppsList.added.clear();
             }
-            if (mBgAllAppsList.modified.size() > 0) {
-                modified = new ArrayList<AppInfo>(mBgAllAppsList.modified);
-                mBgAllAppsList.modified.clear();
-            }
             if (mBgAllAppsList.removed.size() > 0) {
                 removedApps.addAll(mBgAllAppsList.removed);
                 mBgAllAppsList.removed.clear();
             }
+            if (mBgAllAppsList.modified.size() > 0) {
+                // An app that is gone again is only reported as removed.
+                final HashSet<AppInfo> gone = new HashSet<AppInfo>(removedApps);
+                modified = new ArrayList<AppInfo>();
+                replaced = new ArrayList<AppInfo>();
+                for (int i = 0; i < mBgAllAppsList.modified.size(); i++) {
+                    final AppInfo info = mBgAllAppsList.modified.get(i);
+                    if (!gone.contains(info)) {
+                        modified.add(info);
+                        replaced.add(mBgAllAppsList.replaced.get(i));
+                    }
+                }
+                mBgAllAppsList.modified.clear();
+                mBgAllAppsList.replaced.clear();
+                if (modified.isEmpty()) {
+                    modified = null;
+                }
+            }
 
             final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
             if (callbacks == null) {
@@ -1216,12 +2104,13 @@ public class LauncherModel extends BroadcastReceiver {
             }
             if (modified != null) {
                 final ArrayList<AppInfo> modifiedFinal = modified;
+                final ArrayList<AppInfo> replacedFinal = replaced;
 
                 mHandler.post(new Runnable() {
                     public void run() {
                         Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
                         if (callbacks == cb && cb != null) {
-                            callbacks.bindAppsUpdated(modifiedFinal);
+                            callbacks.bindAppsReplaced(replacedFinal, modifiedFinal);
                         }
                     }
                 });
@@ -1229,17 +2118,15 @@ public class LauncherModel extends BroadcastReceiver {
             // If a package has been removed, or an app has been removed as a
             // result of
             // an update (for example), make the removed callback.
-            if (mOp == OP_REMOVE || !removedApps.isEmpty()) {
-                final boolean packageRemoved = (mOp == OP_REMOVE);
-                final ArrayList<String> removedPackageNames =
-                        new ArrayList<String>(Arrays.asList(packages));
+            if (packageRemoved || !removedApps.isEmpty()) {
+                final boolean packageRemovedFinal = packageRemoved;
 
                 mHandler.post(new Runnable() {
                     public void run() {
                         Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
                         if (callbacks == cb && cb != null) {
                             callbacks.bindComponentsRemoved(removedPackageNames,
-                                    removedApps, packageRemoved);
+                                    removedApps, packageRemovedFinal);
                         }
                     }
                 });
@@ -1268,15 +2155,13 @@ public class LauncherModel extends BroadcastReceiver {
 
     public ShortcutInfo getShortcutInfo(Intent intent, int iconId) {
         final ShortcutInfo info = new ShortcutInfo();
-        Bitmap icon = null;
+        IconHandle icon = null;
 
         if (iconId != -1) {
-            icon = BitmapUtils.getIcon(mApp.getContext().getResources(), iconId);
-            info.mRecycle = true;
+            icon = mIconCache.getBuiltinIcon(iconId, IconConfig.getIconSize());
             info.mIconId = iconId;
         } else if (intent != null) {
-            icon = mIconCache.getIcon(intent);
-            info.mRecycle = false;
+            icon = mIconCache.getIconHandle(intent);
             info.mIconId = -1;
         }
 
@@ -1284,12 +2169,55 @@ public class LauncherModel extends BroadcastReceiver {
         return info;
     }
 
+    /**
+     * Sorts the apps loaded behind a bound snapshot. The loaded apps that are
+     * not in bound go to newApps; the ones that differ from their bound app
+     * are mapped from it in replacements. The bound apps left in bound are
+     * gone. The bound icons, stored ones, are compared with the icons the
+     * cache made for the loaded apps, since loaded apps do not hold theirs.
+     */
+    public static void diffSnapshotApps(HashMap<ComponentName, AppInfo> bound,
+            AppInfo[] loaded, IconCache iconCache, ArrayList<AppInfo> newApps,
+            IdentityHashMap<AppInfo, AppInfo> replacements) {
+        for (AppInfo info : loaded) {
+            final AppInfo old = bound.remove(info.componentName);
+            if (old == null) {
+                newApps.add(info);
+            } else if (!isSameApp(old, info, iconCache.getIcon(info))) {
+                replacements.put(old, info);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the app loaded looks like the bound one: same title,
+     * flags and icon pixels.
+     */
+    private static boolean isSameApp(AppInfo bound, AppInfo loaded, Bitmap loadedIcon) {
+        if (bound.flags != loaded.flags) {
+            return false;
+        }
+        final String title = bound.title != null ? bound.title.toString() : null;
+        final String loadedTitle = loaded.title != null ? loaded.title.toString() : null;
+        if (title == null ? loadedTitle != null : !title.equals(loadedTitle)) {
+            return false;
+        }
+        final Bitmap icon = bound.iconBitmap;
+        return icon == loadedIcon
+                || (icon != null && loadedIcon != null && icon.sameAs(loadedIcon));
+    }
+
+    /**
+     * Returns a comparator that orders apps by title, using the sort keys
+     * cached on the apps. The comparator must not be shared between threads.
+     */
     public static final Comparator<AppInfo> getAppNameComparator() {
-        final Collator collator = Collator.getInstance();
+        final Locale locale = Locale.getDefault();
+        final Collator collator = Collator.getInstance(locale);
         return new Comparator<AppInfo>() {
             public final int compare(AppInfo a, AppInfo b) {
-                int result = collator.compare(a.title.toString().trim(),
-                        b.title.toString().trim());
+                int result = a.getSortKey(collator, locale).compareTo(
+                        b.getSortKey(collator, locale));
                 if (result == 0) {
                     result = a.componentName.compareTo(b.componentName);
                 }
@@ -1310,6 +2238,10 @@ public class LauncherModel extends BroadcastReceiver {
         private Collator mCollator;
         private PackageManager mPackageManager;
         private HashMap<Object, CharSequence> mLabelCache;
+        // The sort key of each ResolveInfo seen by this comparator, so that
+        // labels are looked up and collated once per entry, not per compare.
+        private final IdentityHashMap<ResolveInfo, CollationKey> mSortKeys =
+                new IdentityHashMap<ResolveInfo, CollationKey>();
 
         ShortcutNameComparator(PackageManager pm) {
             mPackageManager = pm;
@@ -1324,29 +2256,35 @@ public class LauncherModel extends BroadcastReceiver {
         }
 
         public final int compare(ResolveInfo a, ResolveInfo b) {
-            CharSequence labelA, labelB;
-            ComponentName keyA = LauncherModel.getComponentNameFromResolveInfo(a);
-            ComponentName keyB = LauncherModel.getComponentNameFromResolveInfo(b);
-            if (mLabelCache.containsKey(keyA)) {
-                labelA = mLabelCache.get(keyA);
-            } else {
-                labelA = a.loadLabel(mPackageManager).toString().trim();
+            return getSortKey(a).compareTo(getSortKey(b));
+        }
 
-                mLabelCache.put(keyA, labelA);
-            }
-            if (mLabelCache.containsKey(keyB)) {
-                labelB = mLabelCache.get(keyB);
-            } else {
-                labelB = b.loadLabel(mPackageManager).toString().trim();
+        private CollationKey getSortKey(ResolveInfo info) {
+            CollationKey sortKey = mSortKeys.get(info);
+            if (sortKey == null) {
+                ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+                CharSequence label = mLabelCache.get(key);
+                if (label == null) {
+                    label = info.loadLabel(mPackageManager).toString().trim();
 
-                mLabelCache.put(keyB, labelB);
+                    mLabelCache.put(key, label);
+                }
+                sortKey = mCollator.getCollationKey(label.toString().trim());
+                mSortKeys.put(info, sortKey);
             }
-            return mCollator.compare(labelA, labelB);
+            return sortKey;
         }
     };
 
     public void dumpState() {
         Log.d(TAG, "mCallbacks=" + mCallbacks);
+        mWorkspaceBindBudget.dumpState();
+        mAppsBindBudget.dumpState();
+        mIconCache.dumpState();
+        BitmapUtils.dumpState();
+        BuiltinIconStore.dumpState();
+        sFavoritesWriter.dumpState();
+        mAppMetadata.dumpState();
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.data", mBgAllAppsList.data);
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.added", mBgAllAppsList.added);
         AppInfo.dumpApplicationInfoList(TAG, "mAllAppsList.removed", mBgAllAppsList.removed);
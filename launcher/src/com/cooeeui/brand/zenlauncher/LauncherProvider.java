@@ -17,15 +17,21 @@
 package com.cooeeui.brand.zenlauncher;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
@@ -41,6 +47,7 @@ import android.util.Xml;
 
 import com.cooeeui.brand.zenlauncher.LauncherSettings.Favorites;
 import com.cooeeui.brand.zenlauncher.appIntentUtils.AppIntentUtil;
+import com.cooeeui.brand.zenlauncher.apps.ShortcutInfo;
 import com.cooeeui.brand.zenlauncher.config.ProviderConfig;
 
 public class LauncherProvider extends ContentProvider {
@@ -49,7 +56,7 @@ public class LauncherProvider extends ContentProvider {
 
     private static final String DATABASE_NAME = "launcher.db";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static AppIntentUtil appIntentUtil = null;
     static final String AUTHORITY = ProviderConfig.AUTHORITY;
 
@@ -61,8 +68,21 @@ public class LauncherProvider extends ContentProvider {
     static final String DEFAULT_WORKSPACE_RESOURCE_ID =
             "DEFAULT_WORKSPACE_RESOURCE_ID";
 
+    /**
+     * The columns of favorites the workspace is loaded with, to be queried
+     * ordered by position. Covered by the favorites_position index.
+     */
+    static final String[] WORKSPACE_PROJECTION = new String[] {
+            Favorites._ID, Favorites.INTENT, Favorites.ICON_NAME, Favorites.POSITION,
+            Favorites.PACKAGE_NAME, Favorites.CLASS_NAME
+    };
+
     private DatabaseHelper mOpenHelper;
 
+    // The tables changed by the batch running on each thread, notified once
+    // when it is committed. null while the thread runs no batch.
+    private final ThreadLocal<HashSet<Uri>> mBatchNotifications = new ThreadLocal<HashSet<Uri>>();
+
     @Override
     public boolean onCreate() {
         final Context context = getContext();
@@ -117,7 +137,9 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean outer = beginBatch();
         db.beginTransaction();
+        boolean success = false;
         try {
             int numValues = values.length;
             for (int i = 0; i < numValues; i++) {
@@ -126,12 +148,13 @@ public class LauncherProvider extends ContentProvider {
                     return 0;
                 }
             }
+            sendNotify(uri);
             db.setTransactionSuccessful();
+            success = true;
         } finally {
             db.endTransaction();
+            endBatch(outer, success);
         }
-
-        sendNotify(uri);
         return values.length;
     }
 
@@ -161,11 +184,68 @@ public class LauncherProvider extends ContentProvider {
     }
 
     /**
-     * Insert values to database with _id column check.
+     * Applies operations on the favorites and apps tables in one transaction:
+     * either all of them are applied, or none if one of them throws. Each
+     * table changed is notified once, after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        for (ContentProviderOperation op : operations) {
+            final String table = new SqlArguments(op.getUri(), null, null).table;
+            if (!TABLE_FAVORITES.equals(table) && !TABLE_APPS.equals(table)) {
+                throw new IllegalArgumentException("Unknown table in batch: " + op.getUri());
+            }
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean outer = beginBatch();
+        db.beginTransaction();
+        boolean success = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch(outer, success);
+        }
+    }
+
+    /**
+     * Starts collecting the notifications of this thread, and returns whether
+     * this is the outermost batch, which sends them.
+     */
+    private boolean beginBatch() {
+        if (mBatchNotifications.get() != null) {
+            return false;
+        }
+        mBatchNotifications.set(new HashSet<Uri>());
+        return true;
+    }
+
+    private void endBatch(boolean outer, boolean success) {
+        if (!outer) {
+            return;
+        }
+        final HashSet<Uri> tables = mBatchNotifications.get();
+        mBatchNotifications.set(null);
+        if (success) {
+            for (Uri uri : tables) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Insert values to database with _id column check. The favorites get
+     * their ids from generateNewItemId(), the rows of the other tables may
+     * leave the id to the database.
      */
     private static long dbInsertAndCheck(DatabaseHelper helper,
             SQLiteDatabase db, String table, String nullColumnHack, ContentValues values) {
-        if (!values.containsKey(LauncherSettings.Favorites._ID)) {
+        if (TABLE_FAVORITES.equals(table) && !values.containsKey(LauncherSettings.Favorites._ID)) {
             throw new RuntimeException("Error: attempting to add item without specifying an id");
         }
         return db.insert(table, nullColumnHack, values);
@@ -186,7 +266,15 @@ public class LauncherProvider extends ContentProvider {
     private void sendNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
         if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            final HashSet<Uri> batch = mBatchNotifications.get();
+            if (batch != null) {
+                // Observers of the rows are told through their table.
+                batch.add(new Uri.Builder().scheme(uri.getScheme())
+                        .authority(uri.getAuthority())
+                        .appendPath(uri.getPathSegments().get(0)).build());
+            } else {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
         }
     }
 
@@ -268,8 +356,12 @@ public class LauncherProvider extends ContentProvider {
                     "iconName TEXT," +
                     "icon BLOB," +
                     "uri TEXT," +
-                    "modified INTEGER NOT NULL DEFAULT 0" +
+                    "modified INTEGER NOT NULL DEFAULT 0," +
+                    "packageName TEXT," +
+                    "className TEXT" +
                     ");");
+            createFavoritesPositionIndex(db);
+            createFavoritesComponentIndex(db);
 
             // Create table apps.
             db.execSQL("CREATE TABLE apps (" +
@@ -299,6 +391,28 @@ public class LauncherProvider extends ContentProvider {
 
             int version = oldVersion;
 
+            if (version < 2) {
+                // Version 2 adds an index covering the workspace query.
+                db.execSQL("CREATE INDEX IF NOT EXISTS favorites_position ON favorites (" +
+                        "position," +
+                        "intent," +
+                        "iconName" +
+                        ");");
+                version = 2;
+            }
+
+            if (version < 3) {
+                // Version 3 stores the component of launch intents in their
+                // own columns, so that they need not be parsed.
+                db.execSQL("ALTER TABLE favorites ADD COLUMN packageName TEXT;");
+                db.execSQL("ALTER TABLE favorites ADD COLUMN className TEXT;");
+                fillFavoritesComponents(db);
+                db.execSQL("DROP INDEX IF EXISTS favorites_position;");
+                createFavoritesPositionIndex(db);
+                createFavoritesComponentIndex(db);
+                version = 3;
+            }
+
             if (version != DATABASE_VERSION) {
                 Log.w(TAG, "Destroying all old data.");
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
@@ -308,6 +422,71 @@ public class LauncherProvider extends ContentProvider {
             }
         }
 
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // There is no way back from a newer schema.
+            Log.w(TAG, "Database version downgrade from " + oldVersion + " to " + newVersion
+                    + ", destroying all old data.");
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_APPS);
+            onCreate(db);
+        }
+
+        /**
+         * Creates the index the workspace is loaded from: it is ordered by
+         * position and holds every column of {@link #WORKSPACE_PROJECTION},
+         * _id being the rowid, so the table itself and its icon BLOBs are not
+         * read.
+         */
+        private static void createFavoritesPositionIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_position ON favorites (" +
+                    "position," +
+                    "intent," +
+                    "iconName," +
+                    "packageName," +
+                    "className" +
+                    ");");
+        }
+
+        /**
+         * Creates the index looking favorites up by the activity they launch.
+         */
+        private static void createFavoritesComponentIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS favorites_component ON favorites (" +
+                    "packageName," +
+                    "className" +
+                    ");");
+        }
+
+        /**
+         * Fills the package and class columns of the favorites whose intent
+         * launches an activity, from their intent.
+         */
+        private static void fillFavoritesComponents(SQLiteDatabase db) {
+            final Cursor c = db.query(TABLE_FAVORITES,
+                    new String[] { Favorites._ID, Favorites.INTENT },
+                    Favorites.INTENT + " IS NOT NULL", null, null, null, null);
+            final ContentValues values = new ContentValues();
+            try {
+                while (c.moveToNext()) {
+                    final Intent intent;
+                    try {
+                        intent = Intent.parseUri(c.getString(1), 0);
+                    } catch (URISyntaxException e) {
+                        continue;
+                    }
+                    if (!ShortcutInfo.isLaunchIntent(intent)) {
+                        continue;
+                    }
+                    values.clear();
+                    ShortcutInfo.putComponent(values, intent);
+                    db.update(TABLE_FAVORITES, values, Favorites._ID + "=" + c.getLong(0), null);
+                }
+            } finally {
+                c.close();
+            }
+        }
+
         // Generates a new ID to use for an object in your database. This method
         // should be only called from the main UI thread. As an exception, we do
         // call it when we call the constructor from the worker thread; however,
@@ -448,6 +627,7 @@ public class LauncherProvider extends ContentProvider {
             values.put(Favorites.POSITION, position);
             if (intent != null) {
                 values.put(Favorites.INTENT, intent.toUri(0));
+                ShortcutInfo.putComponent(values, intent);
             } else {
                 values.put(Favorites.INTENT, a.getString(R.styleable.Favorite_intent));
             }
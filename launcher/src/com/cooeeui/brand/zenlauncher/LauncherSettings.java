@@ -112,6 +112,15 @@ public class LauncherSettings {
      * Applications.
      */
     public static final class Applications implements BaseLauncherColumns {
+        /**
+         * The component of the application, as
+         * {@link android.content.ComponentName#flattenToString()}.
+         * <p>
+         * Type: TEXT
+         * </p>
+         */
+        public static final String COMPONENT = "component";
+
         /**
          * The category id of icon.
          * <p>
@@ -136,6 +145,14 @@ public class LauncherSettings {
          */
         public static final String HIDE = "hide";
 
+        /**
+         * Whether the icon was opened since installed, 1 when opened.
+         * <p>
+         * Type: INTEGER
+         * </p>
+         */
+        public static final String OPENED = "opened";
+
         /**
          * Whether the icon is not opened yet after installed, 1 when new.
          * <p>
@@ -201,6 +218,26 @@ public class LauncherSettings {
          */
         public static final String ICON_NAME = "iconName";
 
+        /**
+         * The package of the activity the favorite launches, when its intent
+         * is the plain launch intent of an activity, see
+         * {@link com.cooeeui.brand.zenlauncher.apps.ShortcutInfo#isLaunchIntent}.
+         * null otherwise, the intent must then be parsed.
+         * <P>
+         * Type: TEXT
+         * </P>
+         */
+        public static final String PACKAGE_NAME = "packageName";
+
+        /**
+         * The class of the activity the favorite launches, see
+         * {@link #PACKAGE_NAME}.
+         * <P>
+         * Type: TEXT
+         * </P>
+         */
+        public static final String CLASS_NAME = "className";
+
         /**
          * The content:// style URL for this table
          */
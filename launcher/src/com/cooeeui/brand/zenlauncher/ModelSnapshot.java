@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.ItemInfo;
+import com.cooeeui.brand.zenlauncher.apps.ShortcutInfo;
+import com.cooeeui.brand.zenlauncher.apps.Utilities;
+import com.cooeeui.brand.zenlauncher.scenes.utils.IconNameOrId;
+
+/**
+ * Compact binary image of the loaded model: the workspace items and the list
+ * of all apps. It is written by the loader once a load has finished, and read
+ * back on the next process start so that the launcher can bind before
+ * PackageManager and the favorites database have been queried.
+ * <p>
+ * Icons are not stored. Workspace items keep their icon name, apps are
+ * identified by their component, and the loader fills in the icons while it
+ * reconciles the snapshot with PackageManager.
+ */
+class ModelSnapshot {
+    private static final String TAG = "Launcher.ModelSnapshot";
+
+    private static final String FILE_NAME = "model.snapshot";
+    private static final int MAGIC = 0x5a4c4d53;
+    private static final int VERSION = 1;
+
+    /** The workspace items, in the order they were bound. */
+    final ArrayList<ShortcutInfo> workspaceItems = new ArrayList<ShortcutInfo>();
+
+    /** All apps, sorted by title. Icons are not set. */
+    final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+
+    private ModelSnapshot() {
+    }
+
+    /**
+     * Reads the snapshot written by the last load.
+     *
+     * @return the snapshot, or null if there is none or it cannot be used,
+     *         for instance because it was written for another locale.
+     */
+    static ModelSnapshot read(Context context) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring snapshot with unknown format");
+                return null;
+            }
+            if (!Utilities.getLocaleTag().equals(in.readUTF())) {
+                Log.d(TAG, "Ignoring snapshot written for another locale");
+                return null;
+            }
+
+            final ModelSnapshot snapshot = new ModelSnapshot();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                snapshot.workspaceItems.add(readShortcut(in));
+            }
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                snapshot.apps.add(readApp(in));
+            }
+            return snapshot;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read snapshot", e);
+            return null;
+        } catch (URISyntaxException e) {
+            Log.w(TAG, "Could not read snapshot", e);
+            return null;
+        } finally {
+            Utilities.closeSilently(in);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the model. The previous snapshot is only replaced
+     * once the new one has been written completely.
+     */
+    static void write(Context context, final List<ItemInfo> workspaceItems,
+            final List<AppInfo> apps) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        try {
+            Utilities.writeFileAtomically(file, new Utilities.FileContents() {
+                public void writeTo(DataOutputStream out) throws IOException {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(Utilities.getLocaleTag());
+
+                    int count = 0;
+                    for (ItemInfo item : workspaceItems) {
+                        if (item instanceof ShortcutInfo) {
+                            count++;
+                        }
+                    }
+                    out.writeInt(count);
+                    for (ItemInfo item : workspaceItems) {
+                        if (item instanceof ShortcutInfo) {
+                            writeShortcut(out, (ShortcutInfo) item);
+                        }
+                    }
+
+                    out.writeInt(apps.size());
+                    for (AppInfo app : apps) {
+                        writeApp(out, app);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write snapshot", e);
+        }
+    }
+
+    /**
+     * Removes the snapshot so that the next start does a full load.
+     */
+    static void delete(Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    private static void writeShortcut(DataOutputStream out, ShortcutInfo info)
+            throws IOException {
+        out.writeLong(info.id);
+        out.writeInt(info.position);
+        writeString(out, info.intent != null ? info.intent.toUri(0) : null);
+        writeString(out, info.title != null ? info.title.toString() : null);
+        out.writeUTF(IconNameOrId.getIconName(info.mIconId));
+    }
+
+    private static ShortcutInfo readShortcut(DataInputStream in)
+            throws IOException, URISyntaxException {
+        final ShortcutInfo info = new ShortcutInfo();
+        info.id = in.readLong();
+        info.position = in.readInt();
+        final String uri = readString(in);
+        info.intent = uri != null ? Intent.parseUri(uri, 0) : null;
+        info.title = readString(in);
+        info.mIconId = IconNameOrId.getIconId(in.readUTF());
+        return info;
+    }
+
+    private static void writeApp(DataOutputStream out, AppInfo info) throws IOException {
+        out.writeUTF(info.componentName.flattenToShortString());
+        writeString(out, info.title != null ? info.title.toString() : null);
+        out.writeInt(info.flags);
+        out.writeLong(info.firstInstallTime);
+    }
+
+    private static AppInfo readApp(DataInputStream in) throws IOException {
+        final ComponentName cn = ComponentName.unflattenFromString(in.readUTF());
+        if (cn == null) {
+            throw new IOException("Bad component name");
+        }
+        final String title = readString(in);
+        final int flags = in.readInt();
+        final long firstInstallTime = in.readLong();
+        return new AppInfo(cn, title != null ? title : cn.getClassName(), flags,
+                firstInstallTime);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
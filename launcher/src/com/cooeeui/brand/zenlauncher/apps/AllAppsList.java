@@ -17,12 +17,16 @@
 package com.cooeeui.brand.zenlauncher.apps;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
@@ -33,7 +37,11 @@ import android.content.pm.ResolveInfo;
 public class AllAppsList {
     public static final int DEFAULT_APPLICATIONS_NUMBER = 42;
     
-    /** The list off all apps. */
+    /**
+     * The list off all apps. Only the order of this list may be changed from
+     * outside, apps must be added and removed through this class so that the
+     * indexes below stay in sync.
+     */
     public ArrayList<AppInfo> data =
             new ArrayList<AppInfo>(DEFAULT_APPLICATIONS_NUMBER);
     /** The list of apps that have been added since the last notify() call. */
@@ -41,19 +49,43 @@ public class AllAppsList {
             new ArrayList<AppInfo>(DEFAULT_APPLICATIONS_NUMBER);
     /** The list of apps that have been removed since the last notify() call. */
     public ArrayList<AppInfo> removed = new ArrayList<AppInfo>();
-    /** The list of apps that have been modified since the last notify() call. */
+    /**
+     * The list of apps that have been modified since the last notify() call.
+     * They are new apps, which took the place of the ones at the same index
+     * of replaced: the apps already bound are never changed here.
+     */
     public ArrayList<AppInfo> modified = new ArrayList<AppInfo>();
+    /** The apps replaced by the ones of modified, see above. */
+    public ArrayList<AppInfo> replaced = new ArrayList<AppInfo>();
+
+    /** The apps of data by component. */
+    private final HashMap<ComponentName, AppInfo> mComponents =
+            new HashMap<ComponentName, AppInfo>(DEFAULT_APPLICATIONS_NUMBER);
+    /** The apps of data by package name. */
+    private final HashMap<String, ArrayList<AppInfo>> mPackages =
+            new HashMap<String, ArrayList<AppInfo>>(DEFAULT_APPLICATIONS_NUMBER);
+    /**
+     * The index of each app in data. Since data may be reordered from
+     * outside, an index is checked before it is used, and all of them are
+     * made again if it is wrong.
+     */
+    private final IdentityHashMap<AppInfo, Integer> mPositions =
+            new IdentityHashMap<AppInfo, Integer>(DEFAULT_APPLICATIONS_NUMBER);
 
     private IconCache mIconCache;
 
     private AppFilter mAppFilter;
 
+    private AppMetadataStore mMetadata;
+
     /**
-     * Boring constructor.
+     * Boring constructor. The apps added get their category, visibility and
+     * launch history from metadata, if it is not null.
      */
-    public AllAppsList(IconCache iconCache, AppFilter appFilter) {
+    public AllAppsList(IconCache iconCache, AppFilter appFilter, AppMetadataStore metadata) {
         mIconCache = iconCache;
         mAppFilter = appFilter;
+        mMetadata = metadata;
     }
 
     /**
@@ -66,11 +98,30 @@ public class AllAppsList {
         if (mAppFilter != null && !mAppFilter.shouldShowApp(info.componentName)) {
             return;
         }
-        if (findActivity(data, info.componentName)) {
+        if (mComponents.containsKey(info.componentName)) {
             return;
         }
+        if (mMetadata != null) {
+            mMetadata.apply(info);
+        }
         data.add(info);
+        mPositions.put(info, data.size() - 1);
         added.add(info);
+        index(info);
+    }
+
+    /**
+     * Remove the supplied ApplicationInfo object from the list, and enqueue it
+     * into the list to broadcast when notify() is called. The apps after it
+     * move down, use {@link #removeAll(Collection)} to remove several.
+     */
+    public void remove(AppInfo info) {
+        if (mComponents.get(info.componentName) == info) {
+            unindex(info);
+            data.remove(positionOf(info));
+            mPositions.remove(info);
+            removed.add(info);
+        }
     }
 
     public void clear() {
@@ -79,6 +130,10 @@ public class AllAppsList {
         added.clear();
         removed.clear();
         modified.clear();
+        replaced.clear();
+        mComponents.clear();
+        mPackages.clear();
+        mPositions.clear();
     }
 
     public int size() {
@@ -89,12 +144,26 @@ public class AllAppsList {
         return data.get(index);
     }
 
+    /**
+     * Returns the app for the given component, or null if it is not in the
+     * list.
+     */
+    public AppInfo find(ComponentName component) {
+        return mComponents.get(component);
+    }
+
     /**
      * Add the icons for the supplied apk called packageName.
      */
     public void addPackage(Context context, String packageName) {
-        final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
+        addPackage(context, packageName, findActivitiesForPackage(context, packageName));
+    }
 
+    /**
+     * Add the icons for the supplied apk called packageName, given the
+     * MAIN/LAUNCHER activities of the package.
+     */
+    public void addPackage(Context context, String packageName, List<ResolveInfo> matches) {
         if (matches.size() > 0) {
             for (ResolveInfo info : matches) {
                 add(new AppInfo(context.getPackageManager(), info, mIconCache, null));
@@ -106,37 +175,44 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName) {
-        final List<AppInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            AppInfo info = data.get(i);
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())) {
-                removed.add(info);
-                data.remove(i);
-            }
+        final ArrayList<AppInfo> apps = mPackages.get(packageName);
+        if (apps != null) {
+            removeAll(new ArrayList<AppInfo>(apps));
         }
-        // This is more aggressive than it needs to be.
-        mIconCache.flush();
+        mIconCache.removePackage(packageName);
     }
 
     /**
      * Add and remove icons for this package which has been updated.
      */
     public void updatePackage(Context context, String packageName) {
-        final List<ResolveInfo> matches = findActivitiesForPackage(context, packageName);
+        updatePackage(context, packageName, findActivitiesForPackage(context, packageName));
+    }
+
+    /**
+     * Add and remove icons for this package which has been updated, given the
+     * MAIN/LAUNCHER activities of the package.
+     */
+    public void updatePackage(Context context, String packageName, List<ResolveInfo> matches) {
+        final ArrayList<AppInfo> apps = mPackages.get(packageName);
+        // Every icon and label of the package may have changed, including the
+        // ones of activities that are not in the list.
+        mIconCache.removePackage(packageName);
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                final ComponentName component = applicationInfo.intent.getComponent();
-                if (packageName.equals(component.getPackageName())) {
-                    if (!findActivity(matches, component)) {
-                        removed.add(applicationInfo);
-                        mIconCache.remove(component);
-                        data.remove(i);
+            if (apps != null) {
+                final HashSet<String> classNames = new HashSet<String>();
+                for (ResolveInfo info : matches) {
+                    classNames.add(info.activityInfo.name);
+                }
+                final ArrayList<AppInfo> gone = new ArrayList<AppInfo>();
+                for (AppInfo applicationInfo : apps) {
+                    if (!classNames.contains(applicationInfo.componentName.getClassName())) {
+                        gone.add(applicationInfo);
                     }
                 }
+                removeAll(gone);
             }
 
             // Find enabled activities and add them to the adapter
@@ -144,84 +220,177 @@ public class AllAppsList {
             int count = matches.size();
             for (int i = 0; i < count; i++) {
                 final ResolveInfo info = matches.get(i);
-                AppInfo applicationInfo = findApplicationInfoLocked(
+                AppInfo applicationInfo = mComponents.get(new ComponentName(
                         info.activityInfo.applicationInfo.packageName,
-                        info.activityInfo.name);
+                        info.activityInfo.name));
                 if (applicationInfo == null) {
                     add(new AppInfo(context.getPackageManager(), info, mIconCache, null));
                 } else {
-                    mIconCache.remove(applicationInfo.componentName);
-                    mIconCache.getTitleAndIcon(applicationInfo, info, null);
-                    modified.add(applicationInfo);
+                    // The bound app is drawn on the main thread, the new
+                    // title goes to a copy.
+                    final AppInfo copy = new AppInfo(applicationInfo);
+                    mIconCache.getTitleAndIcon(copy, info, null);
+                    replace(applicationInfo, copy);
+                    final int index = modified.indexOf(applicationInfo);
+                    if (index >= 0) {
+                        // Already a copy made since the last notify() call.
+                        modified.set(index, copy);
+                    } else {
+                        replaced.add(applicationInfo);
+                        modified.add(copy);
+                    }
                 }
             }
-        } else {
+        } else if (apps != null) {
             // Remove all data for this package.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                final ComponentName component = applicationInfo.intent.getComponent();
-                if (packageName.equals(component.getPackageName())) {
-                    removed.add(applicationInfo);
-                    mIconCache.remove(component);
-                    data.remove(i);
-                }
-            }
+            removeAll(new ArrayList<AppInfo>(apps));
         }
     }
 
     /**
-     * Query the package manager for MAIN/LAUNCHER activities in the supplied package.
+     * Puts each new app of replacements in the place of the app it is mapped
+     * from, which must be of the same component. The new apps keep the
+     * category, visibility and launch history of the old ones. Nothing goes
+     * to the added, removed or modified lists: the caller tells the launcher
+     * about the swap.
      */
-    static List<ResolveInfo> findActivitiesForPackage(Context context, String packageName) {
-        final PackageManager packageManager = context.getPackageManager();
-
-        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        mainIntent.setPackage(packageName);
+    public void replaceAll(Map<AppInfo, AppInfo> replacements) {
+        for (Map.Entry<AppInfo, AppInfo> e : replacements.entrySet()) {
+            final AppInfo old = e.getKey();
+            if (mComponents.get(old.componentName) == old) {
+                replace(old, e.getValue());
+            }
+        }
+    }
 
-        final List<ResolveInfo> apps = packageManager.queryIntentActivities(mainIntent, 0);
-        return apps != null ? apps : new ArrayList<ResolveInfo>();
+    private void replace(AppInfo old, AppInfo info) {
+        info.category = old.category;
+        info.priority = old.priority;
+        info.hide = old.hide;
+        info.isOpened = old.isOpened;
+        final int position = positionOf(old);
+        unindex(old);
+        index(info);
+        data.set(position, info);
+        mPositions.remove(old);
+        mPositions.put(info, position);
     }
 
     /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
+     * Removes apps from the list and the indexes in one pass over data, and
+     * adds them to the removed list. The apps that are not in the list are
+     * ignored.
      */
-    private static boolean findActivity(List<ResolveInfo> apps, ComponentName component) {
-        final String className = component.getClassName();
-        for (ResolveInfo info : apps) {
-            final ActivityInfo activityInfo = info.activityInfo;
-            if (activityInfo.name.equals(className)) {
-                return true;
+    public void removeAll(Collection<AppInfo> apps) {
+        final HashSet<AppInfo> set = new HashSet<AppInfo>(apps.size());
+        for (AppInfo info : apps) {
+            if (mComponents.get(info.componentName) == info) {
+                unindex(info);
+                set.add(info);
+            }
+        }
+        if (set.isEmpty()) {
+            return;
+        }
+        final ArrayList<AppInfo> data = this.data;
+        int j = 0;
+        for (int i = 0; i < data.size(); i++) {
+            final AppInfo info = data.get(i);
+            if (set.contains(info)) {
+                removed.add(info);
+                mPositions.remove(info);
+            } else {
+                if (i != j) {
+                    data.set(j, info);
+                    mPositions.put(info, j);
+                }
+                j++;
             }
         }
-        return false;
+        for (int i = data.size() - 1; i >= j; i--) {
+            data.remove(i);
+        }
     }
 
     /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
+     * Returns the index of info, which must be in data.
      */
-    private static boolean findActivity(ArrayList<AppInfo> apps, ComponentName component) {
-        final int N = apps.size();
-        for (int i=0; i<N; i++) {
-            final AppInfo info = apps.get(i);
-            if (info.componentName.equals(component)) {
-                return true;
+    private int positionOf(AppInfo info) {
+        final Integer position = mPositions.get(info);
+        if (position != null && position < data.size() && data.get(position) == info) {
+            return position;
+        }
+        // data was reordered since the indexes were made.
+        mPositions.clear();
+        for (int i = 0; i < data.size(); i++) {
+            mPositions.put(data.get(i), i);
+        }
+        return mPositions.get(info);
+    }
+
+    private void index(AppInfo info) {
+        mComponents.put(info.componentName, info);
+        final String packageName = info.componentName.getPackageName();
+        ArrayList<AppInfo> apps = mPackages.get(packageName);
+        if (apps == null) {
+            apps = new ArrayList<AppInfo>(1);
+            mPackages.put(packageName, apps);
+        }
+        apps.add(info);
+    }
+
+    private void unindex(AppInfo info) {
+        mComponents.remove(info.componentName);
+        final String packageName = info.componentName.getPackageName();
+        final ArrayList<AppInfo> apps = mPackages.get(packageName);
+        if (apps != null) {
+            apps.remove(info);
+            if (apps.isEmpty()) {
+                mPackages.remove(packageName);
             }
         }
-        return false;
     }
 
     /**
-     * Find an ApplicationInfo object for the given packageName and className.
+     * Query the package manager once for the MAIN/LAUNCHER activities of all
+     * the supplied packages. Every package gets an entry, empty if it has no
+     * such activity.
      */
-    private AppInfo findApplicationInfoLocked(String packageName, String className) {
-        for (AppInfo info: data) {
-            final ComponentName component = info.intent.getComponent();
-            if (packageName.equals(component.getPackageName())
-                    && className.equals(component.getClassName())) {
-                return info;
+    public static HashMap<String, List<ResolveInfo>> findActivitiesForPackages(Context context,
+            Collection<String> packageNames) {
+        final HashMap<String, List<ResolveInfo>> result =
+                new HashMap<String, List<ResolveInfo>>();
+        for (String packageName : packageNames) {
+            result.put(packageName, new ArrayList<ResolveInfo>());
+        }
+
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+
+        final List<ResolveInfo> apps =
+                context.getPackageManager().queryIntentActivities(mainIntent, 0);
+        if (apps != null) {
+            for (ResolveInfo info : apps) {
+                final List<ResolveInfo> matches = result.get(info.activityInfo.packageName);
+                if (matches != null) {
+                    matches.add(info);
+                }
             }
         }
-        return null;
+        return result;
+    }
+
+    /**
+     * Query the package manager for MAIN/LAUNCHER activities in the supplied package.
+     */
+    static List<ResolveInfo> findActivitiesForPackage(Context context, String packageName) {
+        final PackageManager packageManager = context.getPackageManager();
+
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        mainIntent.setPackage(packageName);
+
+        final List<ResolveInfo> apps = packageManager.queryIntentActivities(mainIntent, 0);
+        return apps != null ? apps : new ArrayList<ResolveInfo>();
     }
 }
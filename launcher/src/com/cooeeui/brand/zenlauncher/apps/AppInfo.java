@@ -25,8 +25,11 @@ import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.util.Log;
 
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Locale;
 
 import com.cooeeui.brand.zenlauncher.LauncherSettings;
 
@@ -37,7 +40,9 @@ public class AppInfo extends ItemInfo {
     private static final String TAG = "ZenLauncher.AppInfo";
 
     /**
-     * A bitmap version of the application icon.
+     * The icon shown until IconCache knows the application, for instance
+     * while a snapshot of the model is bound. IconCache keeps the real icon,
+     * see {@link IconCache#getIcon(AppInfo)}.
      */
     public Bitmap iconBitmap;
 
@@ -68,6 +73,24 @@ public class AppInfo extends ItemInfo {
 
     public ComponentName componentName;
 
+    /**
+     * The sort key of title, built on first use and again whenever title or
+     * the locale changes. See {@link #getSortKey(Collator, Locale)}.
+     */
+    private volatile SortKey mSortKey;
+
+    private static class SortKey {
+        final CharSequence title;
+        final Locale locale;
+        final CollationKey key;
+
+        SortKey(CharSequence title, Locale locale, CollationKey key) {
+            this.title = title;
+            this.locale = locale;
+            this.key = key;
+        }
+    }
+
     public static final int DOWNLOADED_FLAG = 1;
     public static final int UPDATED_SYSTEM_APP_FLAG = 2;
     /**
@@ -93,6 +116,20 @@ public class AppInfo extends ItemInfo {
         category = info.category;
     }
 
+    /**
+     * Creates an app from saved model state without asking PackageManager.
+     * The icon bitmap is left for the caller to fill in.
+     */
+    public AppInfo(ComponentName componentName, CharSequence title, int flags,
+            long firstInstallTime) {
+        this.componentName = componentName;
+        this.setActivity(componentName,
+                Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        this.title = title;
+        this.flags = flags;
+        this.firstInstallTime = firstInstallTime;
+    }
+
     /**
      * Must not hold the Context.
      */
@@ -115,6 +152,20 @@ public class AppInfo extends ItemInfo {
         iconCache.getTitleAndIcon(this, info, labelCache);
     }
 
+    /**
+     * Returns the locale-aware sort key of the title. collator must be an
+     * instance for locale, and should not be shared between threads.
+     */
+    public CollationKey getSortKey(Collator collator, Locale locale) {
+        SortKey sortKey = mSortKey;
+        if (sortKey == null || sortKey.title != title || !sortKey.locale.equals(locale)) {
+            final String source = title != null ? title.toString().trim() : "";
+            sortKey = new SortKey(title, locale, collator.getCollationKey(source));
+            mSortKey = sortKey;
+        }
+        return sortKey.key;
+    }
+
     /**
      * Return the flags by package info.
      */
@@ -170,7 +221,7 @@ public class AppInfo extends ItemInfo {
         }
     }
 
-    public ShortcutInfo makeShortcut() {
-        return new ShortcutInfo(this);
+    public ShortcutInfo makeShortcut(IconCache iconCache) {
+        return new ShortcutInfo(this, iconCache);
     }
 }
@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cooeeui.brand.zenlauncher.LauncherSettings.Applications;
+import com.cooeeui.brand.zenlauncher.category.CategoryHelper;
+
+/**
+ * The category, visibility and launch history of each app, kept in the apps
+ * table. The table is read in one query the first time an app is looked up;
+ * from then on the map in memory is the reference and the table follows it:
+ * changes are merged per app and written in one batch, a short while after
+ * the first one or when {@link #flushSoon()} is called. The writes that fail
+ * are queued again and tried later, less and less often.
+ * <p>
+ * An app is classified with cate.db only the first time it is seen, the
+ * category is stored with the rest. The rows of new apps get their ids from
+ * the table when they are inserted.
+ * <p>
+ * Used on the worker thread, except for {@link #flushSoon()}, which may be
+ * called from the main thread: the table is read and apps are classified
+ * without holding the lock it takes.
+ */
+public class AppMetadataStore {
+    private static final String TAG = "Launcher.AppMetadataStore";
+    private static final boolean DEBUG = false;
+
+    // How long a change may wait for others to join it.
+    private static final long FLUSH_DELAY = 1000;
+    // How long failed writes wait at most before they are tried again.
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    private static final String[] PROJECTION = new String[] {
+            Applications._ID, Applications.COMPONENT, Applications.CATEGORY,
+            Applications.PRIORITY, Applications.HIDE, Applications.OPENED
+    };
+
+    private static class Metadata {
+        long id;
+        // Whether the row of the app exists in the table, and id is its id.
+        boolean stored;
+        int category;
+        int priority;
+        boolean hide;
+        boolean opened;
+
+        ContentValues toValues(ComponentName cn) {
+            final ContentValues values = new ContentValues();
+            values.put(Applications.COMPONENT, cn.flattenToString());
+            values.put(Applications.CATEGORY, category);
+            values.put(Applications.PRIORITY, priority);
+            values.put(Applications.HIDE, hide ? 1 : 0);
+            values.put(Applications.OPENED, opened ? 1 : 0);
+            return values;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mWorker;
+
+    // Only used on the worker thread.
+    private boolean mLoaded;
+    // Whether cate.db was opened to classify apps, and must be closed.
+    private boolean mClassifying;
+
+    // Guarded by this.
+    private final HashMap<ComponentName, Metadata> mApps =
+            new HashMap<ComponentName, Metadata>();
+    private final LinkedHashMap<ComponentName, Metadata> mDirty =
+            new LinkedHashMap<ComponentName, Metadata>();
+    private final ArrayList<Long> mDeleted = new ArrayList<Long>();
+    private boolean mScheduled;
+    // The delay of the next flush, longer after each one that failed.
+    private long mFlushDelay = FLUSH_DELAY;
+
+    // Statistics for dumpState(). Guarded by this.
+    private int mClassified;
+    private int mWritten;
+    private int mBatches;
+    private int mFailed;
+
+    public AppMetadataStore(Context context, Handler worker) {
+        mContext = context.getApplicationContext();
+        mWorker = worker;
+    }
+
+    /**
+     * Sets the category, visibility and launch history of info from the
+     * store, classifying the app if it is new.
+     */
+    public void apply(AppInfo info) {
+        final Metadata metadata = get(info);
+        synchronized (this) {
+            info.category = metadata.category;
+            info.priority = metadata.priority;
+            info.hide = metadata.hide;
+            info.isOpened = metadata.opened;
+        }
+    }
+
+    /**
+     * Records a launch of info.
+     */
+    public void launched(AppInfo info) {
+        final Metadata metadata = get(info);
+        synchronized (this) {
+            metadata.opened = true;
+            metadata.priority++;
+            info.isOpened = true;
+            info.priority = metadata.priority;
+            changed(info.componentName, metadata);
+        }
+    }
+
+    /**
+     * Forgets the apps of packageName, which was uninstalled.
+     */
+    public void removePackage(String packageName) {
+        ensureLoaded();
+        synchronized (this) {
+            final Iterator<Map.Entry<ComponentName, Metadata>> it =
+                    mApps.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<ComponentName, Metadata> e = it.next();
+                if (!packageName.equals(e.getKey().getPackageName())) {
+                    continue;
+                }
+                final Metadata metadata = e.getValue();
+                it.remove();
+                mDirty.remove(e.getKey());
+                if (metadata.stored) {
+                    mDeleted.add(metadata.id);
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the metadata of info, made if the app is new. The table is read
+     * and the app classified without the lock, which the flush methods take
+     * on the main thread.
+     */
+    private Metadata get(AppInfo info) {
+        ensureLoaded();
+        synchronized (this) {
+            final Metadata metadata = mApps.get(info.componentName);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+        final int category = classify(info);
+        synchronized (this) {
+            final Metadata metadata = new Metadata();
+            metadata.category = category;
+            mApps.put(info.componentName, metadata);
+            changed(info.componentName, metadata);
+            mClassified++;
+            return metadata;
+        }
+    }
+
+    private int classify(AppInfo info) {
+        if (!mClassifying) {
+            CategoryHelper.init(mContext);
+            mClassifying = true;
+        }
+        return CategoryHelper.getCategoryId(info);
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        final long t = DEBUG ? SystemClock.uptimeMillis() : 0;
+        final Cursor c = mContext.getContentResolver().query(Applications.CONTENT_URI,
+                PROJECTION, null, null, null);
+        if (c == null) {
+            return;
+        }
+        final HashMap<ComponentName, Metadata> apps = new HashMap<ComponentName, Metadata>();
+        final ArrayList<Long> deleted = new ArrayList<Long>();
+        try {
+            while (c.moveToNext()) {
+                final long id = c.getLong(0);
+                final ComponentName cn = c.isNull(1)
+                        ? null : ComponentName.unflattenFromString(c.getString(1));
+                if (cn == null) {
+                    deleted.add(id);
+                    continue;
+                }
+                final Metadata metadata = new Metadata();
+                metadata.id = id;
+                metadata.stored = true;
+                metadata.category = c.getInt(2);
+                metadata.priority = c.getInt(3);
+                metadata.hide = c.getInt(4) != 0;
+                metadata.opened = c.getInt(5) != 0;
+                final Metadata previous = apps.put(cn, metadata);
+                if (previous != null) {
+                    // A duplicate row, the last one wins.
+                    deleted.add(previous.id);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        synchronized (this) {
+            mApps.putAll(apps);
+            mDeleted.addAll(deleted);
+            if (!mDeleted.isEmpty()) {
+                schedule();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "loaded " + apps.size() + " apps in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    private void changed(ComponentName cn, Metadata metadata) {
+        mDirty.put(cn, metadata);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mWorker.postDelayed(mFlush, mFlushDelay);
+        }
+    }
+
+    /**
+     * Writes the changes on the worker thread without waiting for the
+     * deadline, for instance when the launcher is paused.
+     */
+    public void flushSoon() {
+        synchronized (this) {
+            if (mDirty.isEmpty() && mDeleted.isEmpty()) {
+                return;
+            }
+            mWorker.removeCallbacks(mFlush);
+            mScheduled = true;
+        }
+        mWorker.postAtFrontOfQueue(mFlush);
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+            // The apps seen so far are classified, cate.db is opened again
+            // for the next new ones.
+            if (mClassifying) {
+                CategoryHelper.close();
+                mClassifying = false;
+            }
+        }
+    };
+
+    /**
+     * Writes the changes, on the worker thread. A row is marked stored, and
+     * a change dropped from the queue, only once its write succeeded.
+     */
+    private void flush() {
+        final ArrayList<ContentProviderOperation> ops;
+        // What each operation writes: the component of an app, or the id of a
+        // row deleted.
+        final ArrayList<Object> targets;
+        synchronized (this) {
+            mScheduled = false;
+            if (mDirty.isEmpty() && mDeleted.isEmpty()) {
+                return;
+            }
+            ops = new ArrayList<ContentProviderOperation>(mDirty.size() + mDeleted.size());
+            targets = new ArrayList<Object>(ops.size());
+            for (long id : mDeleted) {
+                ops.add(ContentProviderOperation
+                        .newDelete(Applications.getContentUri(id, false))
+                        .build());
+                targets.add(id);
+            }
+            for (Map.Entry<ComponentName, Metadata> e : mDirty.entrySet()) {
+                final Metadata metadata = e.getValue();
+                final ContentValues values = metadata.toValues(e.getKey());
+                if (metadata.stored) {
+                    ops.add(ContentProviderOperation
+                            .newUpdate(Applications.getContentUri(metadata.id, false))
+                            .withValues(values).build());
+                } else {
+                    ops.add(ContentProviderOperation
+                            .newInsert(Applications.CONTENT_URI_NO_NOTIFICATION)
+                            .withValues(values).build());
+                }
+                targets.add(e.getKey());
+            }
+            mDeleted.clear();
+            mDirty.clear();
+        }
+
+        final long t = DEBUG ? SystemClock.uptimeMillis() : 0;
+        final ContentResolver cr = mContext.getContentResolver();
+        int failed = 0;
+        final ContentProviderResult[] results = applyBatch(cr, ops);
+        if (results != null) {
+            for (int i = 0; i < ops.size(); i++) {
+                written(targets.get(i), results[i]);
+            }
+        } else {
+            // The batch was rolled back as a whole; write the operations one
+            // by one so that a bad one does not hold back the others.
+            for (int i = 0; i < ops.size(); i++) {
+                final ArrayList<ContentProviderOperation> single =
+                        new ArrayList<ContentProviderOperation>(1);
+                single.add(ops.get(i));
+                final ContentProviderResult[] result =
+                        ops.size() > 1 ? applyBatch(cr, single) : null;
+                if (result != null) {
+                    written(targets.get(i), result[0]);
+                } else {
+                    requeue(targets.get(i));
+                    failed++;
+                }
+            }
+        }
+
+        synchronized (this) {
+            mWritten += ops.size() - failed;
+            mFailed += failed;
+            mBatches++;
+            if (failed > 0) {
+                mFlushDelay = Math.min(mFlushDelay * 2, MAX_RETRY_DELAY);
+                schedule();
+            } else {
+                mFlushDelay = FLUSH_DELAY;
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "wrote " + (ops.size() - failed) + " apps, " + failed + " failed, in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    // Records the write of target, which succeeded with result.
+    private synchronized void written(Object target, ContentProviderResult result) {
+        if (!(target instanceof ComponentName)) {
+            return;
+        }
+        final ComponentName cn = (ComponentName) target;
+        final Metadata metadata = mApps.get(cn);
+        if (metadata == null) {
+            // Removed since; the row is deleted with the next batch.
+            if (result.uri != null) {
+                mDeleted.add(ContentUris.parseId(result.uri));
+                schedule();
+            }
+            return;
+        }
+        if (result.uri != null) {
+            metadata.id = ContentUris.parseId(result.uri);
+            metadata.stored = true;
+        } else if (result.count != null && result.count == 0) {
+            // The row is gone, insert it again.
+            metadata.stored = false;
+            changed(cn, metadata);
+        }
+    }
+
+    // Queues target again after its write failed.
+    private synchronized void requeue(Object target) {
+        if (target instanceof ComponentName) {
+            final ComponentName cn = (ComponentName) target;
+            final Metadata metadata = mApps.get(cn);
+            if (metadata != null && !mDirty.containsKey(cn)) {
+                mDirty.put(cn, metadata);
+            }
+        } else {
+            mDeleted.add((Long) target);
+        }
+    }
+
+    private static ContentProviderResult[] applyBatch(ContentResolver cr,
+            ArrayList<ContentProviderOperation> ops) {
+        try {
+            return cr.applyBatch(Applications.CONTENT_URI.getAuthority(), ops);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " apps", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " apps", e);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not write " + ops.size() + " apps", e);
+        }
+        return null;
+    }
+
+    public synchronized void dumpState() {
+        Log.d(TAG, "apps=" + mApps.size() + " classified=" + mClassified
+                + " written=" + mWritten + " batches=" + mBatches + " failed=" + mFailed
+                + " dirty=" + mDirty.size() + " deleted=" + mDeleted.size());
+    }
+}
@@ -16,7 +16,16 @@
 
 package com.cooeeui.brand.zenlauncher.apps;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import android.annotation.SuppressLint;
 import android.app.ActivityManager;
@@ -24,36 +33,118 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
 import com.cooeeui.brand.zenlauncher.LauncherModel;
+import com.cooeeui.brand.zenlauncher.R;
+import com.cooeeui.brand.zenlauncher.scenes.utils.BitmapUtils;
+import com.cooeeui.brand.zenlauncher.scenes.utils.BuiltinIconStore;
 
 /**
  * Cache of application icons. Icons can be made from any thread.
+ * <p>
+ * No lock is held while PackageManager is called or an icon is rendered, so
+ * requests for different apps do not wait for each other. A request for an
+ * icon that another thread is making waits for that thread instead of making
+ * the icon again.
+ * <p>
+ * The icons kept in memory are limited to a budget in bytes. When it is
+ * exceeded the least recently used icons are dropped, but not their labels;
+ * a dropped icon is made again, from disk if possible, the next time it is
+ * asked for. Icons that are on screen are pinned with {@link #pin} and never
+ * dropped.
+ * <p>
+ * Views that draw an icon at another size than the one it is rendered at can
+ * ask for a copy at their exact size with
+ * {@link #getIcon(ComponentName, int, IconCallback)}, so that drawing it needs
+ * no scaling. Copies are made on a background thread and count against the
+ * same budget as the icon they are made from.
+ * <p>
+ * Icons and copies with the same pixels, such as the activities of one
+ * package or the apps that fall back to the default icon, share one Bitmap,
+ * which is only counted once against the budget.
+ * <p>
+ * Items and views hold icons through an {@link IconHandle}, which pins app
+ * icons while they are drawn and frees built-in icons once nobody draws them.
  */
 public class IconCache {
-    @SuppressWarnings("unused")
     private static final String TAG = "Launcher.IconCache";
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
 
     private static class CacheEntry {
+        public volatile String title;
+        // Guarded by mLock.
         public Bitmap icon;
-        public String title;
+        // Copies of icon at other sizes, by size. Dropped with icon. Guarded
+        // by mLock.
+        public HashMap<Integer, Bitmap> variants;
+    }
+
+    /**
+     * Receives an icon made on a background thread, on the main thread.
+     */
+    public interface IconCallback {
+        void onIconReady(Bitmap icon);
     }
 
     private final Bitmap mDefaultIcon;
     private final Context mContext;
     private final PackageManager mPackageManager;
-    private final HashMap<ComponentName, CacheEntry> mCache =
-            new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final ConcurrentHashMap<ComponentName, CacheEntry> mCache =
+            new ConcurrentHashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
     private int mIconDpi;
 
+    // The icons being made, so that concurrent requests share one.
+    private final ConcurrentHashMap<ComponentName, FutureTask<Bitmap>> mLoading =
+            new ConcurrentHashMap<ComponentName, FutureTask<Bitmap>>();
+
+    // Guards the icons of the entries and the memory accounting below. Only
+    // held for bookkeeping, never around PackageManager or rendering.
+    private final Object mLock = new Object();
+    // The entries whose icon is in memory and not pinned, least recently
+    // used first. Eviction takes from the head.
+    private final LinkedHashMap<ComponentName, CacheEntry> mLru =
+            new LinkedHashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY, 0.75f, true);
+    // The components of mCache by package, so that a package can be dropped
+    // without flushing everything.
+    private final HashMap<String, HashSet<ComponentName>> mPackages =
+            new HashMap<String, HashSet<ComponentName>>();
+    // Pin counts by component. Pinned entries are not in mLru.
+    private final HashMap<ComponentName, Integer> mPins = new HashMap<ComponentName, Integer>();
+    // Every icon and variant of the entries is acquired from mInterner, which
+    // counts the bytes in memory.
+    private final IconInterner mInterner = new IconInterner();
+    private int mMaxSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mSharedCount;
+    private int mEvictionCount;
+
+    // The callbacks waiting for each variant being made, keyed by
+    // variantKey(). Guarded by mLock.
+    private final HashMap<String, ArrayList<IconCallback>> mPendingVariants =
+            new HashMap<String, ArrayList<IconCallback>>();
+    private Handler mVariantWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Rendered icons survive the process in mDiskCache. The package versions
+    // they are checked against are looked up once per package.
+    private final IconDiskCache mDiskCache;
+    private final ConcurrentHashMap<String, PackageInfo> mPackageInfos =
+            new ConcurrentHashMap<String, PackageInfo>();
+
     public IconCache(Context context) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
@@ -64,6 +155,24 @@ public class IconCache {
 
         // need to set mIconDpi before getting default icon
         mDefaultIcon = makeDefaultIcon();
+
+        mDiskCache = new IconDiskCache(context);
+
+        final int maxKb = context.getResources().getInteger(R.integer.config_iconCacheMaxKb);
+        mMaxSize = maxKb > 0 ? maxKb * 1024
+                : activityManager.getMemoryClass() * 1024 * 1024 / 8;
+    }
+
+    /**
+     * Sets the number of bytes the icons kept in memory may take. Pinned
+     * icons are counted but never dropped, so the cache can stay over budget
+     * while they are pinned.
+     */
+    public void setMaxSize(int maxSize) {
+        synchronized (mLock) {
+            mMaxSize = maxSize;
+            trimLocked();
+        }
     }
 
     public Drawable getFullResDefaultActivityIcon() {
@@ -136,98 +245,679 @@ public class IconCache {
      * Remove any records for the supplied ComponentName.
      */
     public void remove(ComponentName componentName) {
-        synchronized (mCache) {
-            mCache.remove(componentName);
+        synchronized (mLock) {
+            removeLocked(componentName);
+            final HashSet<ComponentName> components =
+                    mPackages.get(componentName.getPackageName());
+            if (components != null) {
+                components.remove(componentName);
+                if (components.isEmpty()) {
+                    mPackages.remove(componentName.getPackageName());
+                }
+            }
+        }
+        mPackageInfos.remove(componentName.getPackageName());
+        mDiskCache.remove(componentName);
+    }
+
+    /**
+     * Remove the records of every component of packageName, for instance
+     * when the package is removed or updated. Other packages are kept.
+     */
+    public void removePackage(String packageName) {
+        final HashSet<ComponentName> components;
+        synchronized (mLock) {
+            components = mPackages.remove(packageName);
+            if (components != null) {
+                for (ComponentName cn : components) {
+                    removeLocked(cn);
+                }
+            }
+        }
+        mPackageInfos.remove(packageName);
+        if (components != null) {
+            for (ComponentName cn : components) {
+                mDiskCache.remove(cn);
+            }
+        }
+    }
+
+    private void removeLocked(ComponentName componentName) {
+        final CacheEntry entry = mCache.remove(componentName);
+        if (entry != null) {
+            mLru.remove(componentName);
+            releaseIconLocked(entry);
+        }
+    }
+
+    // Releases the icon and variants of entry, which keeps its title.
+    private void releaseIconLocked(CacheEntry entry) {
+        mInterner.release(entry.icon);
+        entry.icon = null;
+        if (entry.variants != null) {
+            for (Bitmap variant : entry.variants.values()) {
+                mInterner.release(variant);
+            }
+            entry.variants = null;
         }
     }
 
     /**
-     * Empty out the cache.
+     * Empty out the cache. The icons stored on disk are kept, they are checked
+     * against the package version when they are used.
      */
     public void flush() {
-        synchronized (mCache) {
+        synchronized (mLock) {
             mCache.clear();
+            mPackages.clear();
+            mLru.clear();
+            mInterner.clear();
         }
+        mPackageInfos.clear();
+    }
+
+    /**
+     * Returns the icon stored on disk for component, without checking that it
+     * is still up to date, or null. Meant for showing something before the
+     * model is loaded.
+     */
+    public Bitmap getStoredIcon(ComponentName component) {
+        return mDiskCache.getAny(component, mIconDpi, Utilities.getIconTextureSize(mContext));
     }
 
     /**
-     * Fill in "application" with the icon and label for "info."
+     * Lets the disk cache drop what it read in advance for the first load. If
+     * the load that just finished asked for every icon it needs, the stored
+     * icons it did not use are deleted.
+     */
+    public void releaseStoredIcons(boolean prune) {
+        mDiskCache.release(prune, new HashSet<ComponentName>(mCache.keySet()));
+    }
+
+    /**
+     * Fill in "application" with the label for "info," and make its icon. The
+     * icon is kept by the cache rather than by "application," see
+     * {@link #getIcon(AppInfo)}.
      */
     public void getTitleAndIcon(AppInfo application, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            CacheEntry entry = cacheLocked(application.componentName, info, labelCache);
+        final CacheEntry entry = getEntry(application.componentName, info, labelCache);
+        getIcon(application.componentName, entry, info.activityInfo);
 
-            application.title = entry.title;
-            application.iconBitmap = entry.icon;
+        application.title = entry.title;
+        application.iconBitmap = null;
+    }
+
+    /**
+     * Returns the icon of "application," made again if it was dropped from
+     * memory. Before the cache knows the app, for instance while a snapshot
+     * of the model is bound, the icon set on "application" is returned.
+     */
+    public Bitmap getIcon(AppInfo application) {
+        final CacheEntry entry = mCache.get(application.componentName);
+        if (entry == null) {
+            return application.iconBitmap != null ? application.iconBitmap : mDefaultIcon;
         }
+        return getIcon(application.componentName, entry, null);
     }
 
-    public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
+    /**
+     * Returns the icon of "application" if it is in memory. Otherwise returns
+     * the icon set on "application" or the default icon, and, if callback is
+     * not null, makes the icon on a background thread; callback then gets it
+     * on the main thread. Never blocks, for views bound on the main thread.
+     */
+    public Bitmap getIcon(final AppInfo application, IconCallback callback) {
+        final ComponentName component = application.componentName;
+        final Bitmap placeholder =
+                application.iconBitmap != null ? application.iconBitmap : mDefaultIcon;
+        final CacheEntry entry = mCache.get(component);
+        if (entry == null) {
+            return placeholder;
+        }
+        final String key = variantKey(component, 0);
+        synchronized (mLock) {
+            if (entry.icon != null) {
+                mHitCount++;
+                mLru.get(component);
+                return entry.icon;
+            }
+            if (callback == null) {
+                return placeholder;
+            }
+            ArrayList<IconCallback> callbacks = mPendingVariants.get(key);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return placeholder;
+            }
+            callbacks = new ArrayList<IconCallback>();
+            callbacks.add(callback);
+            mPendingVariants.put(key, callbacks);
+        }
 
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
+        getVariantWorker().post(new Runnable() {
+            public void run() {
+                final Bitmap icon = getIcon(component, entry, null);
+                final ArrayList<IconCallback> callbacks;
+                synchronized (mLock) {
+                    callbacks = mPendingVariants.remove(key);
+                }
+                if (callbacks == null) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        for (IconCallback callback : callbacks) {
+                            callback.onIconReady(icon);
+                        }
+                    }
+                });
             }
+        });
+        return placeholder;
+    }
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, null);
-            return entry.icon;
+    /**
+     * Returns the icon of component scaled to size x size, if it is in
+     * memory. Otherwise returns null and makes it on a background thread;
+     * callback then gets it on the main thread, unless the app is not known
+     * or goes away meanwhile.
+     */
+    public Bitmap getIcon(final ComponentName component, final int size,
+            IconCallback callback) {
+        final CacheEntry entry = mCache.get(component);
+        if (entry == null || size <= 0) {
+            return null;
+        }
+        final String key = variantKey(component, size);
+        synchronized (mLock) {
+            if (entry.icon != null) {
+                Bitmap variant = entry.icon.getWidth() == size ? entry.icon : null;
+                if (variant == null && entry.variants != null) {
+                    variant = entry.variants.get(size);
+                }
+                if (variant != null) {
+                    mHitCount++;
+                    mLru.get(component);
+                    return variant;
+                }
+            }
+            ArrayList<IconCallback> callbacks = mPendingVariants.get(key);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return null;
+            }
+            callbacks = new ArrayList<IconCallback>();
+            callbacks.add(callback);
+            mPendingVariants.put(key, callbacks);
         }
+
+        getVariantWorker().post(new Runnable() {
+            public void run() {
+                final Bitmap icon = getIcon(component, entry, null);
+                Bitmap variant = null;
+                int hash = 0;
+                if (icon != mDefaultIcon) {
+                    variant = icon.getWidth() == size ? icon
+                            : Bitmap.createScaledBitmap(icon, size, size, true);
+                    if (variant != icon) {
+                        hash = IconInterner.hash(variant);
+                    }
+                }
+                final ArrayList<IconCallback> callbacks;
+                synchronized (mLock) {
+                    callbacks = mPendingVariants.remove(key);
+                    // Only kept if the entry and its icon are still there.
+                    if (variant != null && variant != icon && entry.icon != null
+                            && mCache.get(component) == entry) {
+                        if (entry.variants == null) {
+                            entry.variants = new HashMap<Integer, Bitmap>();
+                        }
+                        variant = mInterner.acquire(variant, hash);
+                        mInterner.release(entry.variants.put(size, variant));
+                        trimLocked();
+                    }
+                }
+                if (variant == null || callbacks == null) {
+                    return;
+                }
+                final Bitmap result = variant;
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        for (IconCallback callback : callbacks) {
+                            callback.onIconReady(result);
+                        }
+                    }
+                });
+            }
+        });
+        return null;
     }
 
-    public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
-            HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
-                return null;
+    private static String variantKey(ComponentName component, int size) {
+        return component.flattenToShortString() + '@' + size;
+    }
+
+    private synchronized Handler getVariantWorker() {
+        if (mVariantWorker == null) {
+            final HandlerThread thread = new HandlerThread("launcher-icon-variants",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mVariantWorker = new Handler(thread.getLooper());
+        }
+        return mVariantWorker;
+    }
+
+    /**
+     * Keeps the icon of component in memory until it is unpinned, for icons
+     * that are on screen. Pins are counted.
+     */
+    public void pin(ComponentName component) {
+        synchronized (mLock) {
+            final Integer count = mPins.get(component);
+            mPins.put(component, count != null ? count + 1 : 1);
+            if (count == null) {
+                mLru.remove(component);
             }
+        }
+    }
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, labelCache);
-            return entry.icon;
+    /**
+     * Releases a pin taken with {@link #pin}.
+     */
+    public void unpin(ComponentName component) {
+        synchronized (mLock) {
+            final Integer count = mPins.get(component);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mPins.put(component, count - 1);
+                return;
+            }
+            mPins.remove(component);
+            final CacheEntry entry = mCache.get(component);
+            if (entry != null && entry.icon != null) {
+                mLru.put(component, entry);
+                trimLocked();
+            }
+        }
+    }
+
+    /**
+     * Reloads the label of "application" from "info", for instance after a
+     * locale change. The cached icon is kept.
+     */
+    public void updateTitle(AppInfo application, ResolveInfo info) {
+        CharSequence label = info.loadLabel(mPackageManager);
+        final String title = label != null ? label.toString() : info.activityInfo.name;
+        CacheEntry entry = mCache.get(application.componentName);
+        if (entry != null) {
+            entry.title = title;
+        }
+        application.title = title;
+    }
+
+    public Bitmap getIcon(Intent intent) {
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
+
+        if (resolveInfo == null || component == null) {
+            return mDefaultIcon;
         }
+
+        return getIcon(component, getEntry(component, resolveInfo, null),
+                resolveInfo.activityInfo);
+    }
+
+    public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
+            HashMap<Object, CharSequence> labelCache) {
+        if (resolveInfo == null || component == null) {
+            return null;
+        }
+
+        return getIcon(component, getEntry(component, resolveInfo, labelCache),
+                resolveInfo.activityInfo);
     }
 
     public boolean isDefaultIcon(Bitmap icon) {
         return mDefaultIcon == icon;
     }
 
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info,
+    /**
+     * Returns a handle on the icon of the app intent starts, or on the default
+     * icon if it does not start an app.
+     */
+    public IconHandle getIconHandle(Intent intent) {
+        final ComponentName component = intent.getComponent();
+        final Bitmap icon = getIcon(intent);
+        if (component == null || icon == mDefaultIcon) {
+            return wrapIcon(icon);
+        }
+        return new IconHandle(this, IconHandle.TYPE_APP, component, -1, 0, icon);
+    }
+
+    /**
+     * Returns a handle on the icon of "application," see
+     * {@link #getIcon(AppInfo)}.
+     */
+    public IconHandle getIconHandle(AppInfo application) {
+        return new IconHandle(this, IconHandle.TYPE_APP, application.componentName, -1, 0,
+                getIcon(application));
+    }
+
+    /**
+     * Returns a handle on the icon of component stored on disk, see
+     * {@link #getStoredIcon(ComponentName)}, or null if there is none.
+     */
+    public IconHandle getStoredIconHandle(ComponentName component) {
+        final Bitmap icon = getStoredIcon(component);
+        return icon != null
+                ? new IconHandle(this, IconHandle.TYPE_APP, component, -1, 0, icon) : null;
+    }
+
+    /**
+     * Returns a handle on the built-in icon iconId at size x size, or null if
+     * it cannot be loaded. Loads it on the calling thread.
+     */
+    public IconHandle getBuiltinIcon(int iconId, int size) {
+        final Bitmap icon = loadBuiltinIcon(iconId, size);
+        return icon != null
+                ? new IconHandle(this, IconHandle.TYPE_BUILTIN, null, iconId, size, icon) : null;
+    }
+
+    /**
+     * Returns a handle on icon, which the caller keeps and never frees.
+     */
+    public IconHandle wrapIcon(Bitmap icon) {
+        return new IconHandle(this, IconHandle.TYPE_FIXED, null, -1, 0, icon);
+    }
+
+    Bitmap loadBuiltinIcon(int iconId, int size) {
+        return BuiltinIconStore.getIcon(mContext, iconId, size);
+    }
+
+    void releaseBuiltinIcon(Bitmap icon) {
+        BitmapUtils.releaseIcon(icon);
+    }
+
+    private CacheEntry getEntry(ComponentName componentName, ResolveInfo info,
             HashMap<Object, CharSequence> labelCache) {
         CacheEntry entry = mCache.get(componentName);
-        if (entry == null) {
-            entry = new CacheEntry();
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = new CacheEntry();
+        // The label cache is shared by the loader threads.
+        ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+        CharSequence label = null;
+        if (labelCache != null) {
+            synchronized (labelCache) {
+                label = labelCache.get(key);
+            }
+        }
+        if (label == null) {
+            label = info.loadLabel(mPackageManager);
+            if (labelCache != null && label != null) {
+                synchronized (labelCache) {
+                    labelCache.put(key, label.toString());
+                }
+            }
+        }
+        entry.title = label != null ? label.toString() : info.activityInfo.name;
+
+        synchronized (mLock) {
+            final CacheEntry existing = mCache.putIfAbsent(componentName, entry);
+            if (existing != null) {
+                return existing;
+            }
+            HashSet<ComponentName> components = mPackages.get(componentName.getPackageName());
+            if (components == null) {
+                components = new HashSet<ComponentName>();
+                mPackages.put(componentName.getPackageName(), components);
+            }
+            components.add(componentName);
+        }
+        return entry;
+    }
 
-            mCache.put(componentName, entry);
+    /**
+     * Returns the icon of entry, made again if it was dropped. info may be
+     * null, it is then looked up if the icon is not on disk either.
+     */
+    private Bitmap getIcon(final ComponentName componentName, final CacheEntry entry,
+            final ActivityInfo info) {
+        synchronized (mLock) {
+            if (entry.icon != null) {
+                mHitCount++;
+                // Touch it.
+                mLru.get(componentName);
+                return entry.icon;
+            }
+            mMissCount++;
+        }
 
-            ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
-            if (labelCache != null && labelCache.containsKey(key)) {
-                entry.title = labelCache.get(key).toString();
-            } else {
-                entry.title = info.loadLabel(mPackageManager).toString();
-                if (labelCache != null) {
-                    labelCache.put(key, entry.title);
+        final FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+            public Bitmap call() {
+                // Another thread may have made it since we looked.
+                synchronized (mLock) {
+                    if (entry.icon != null) {
+                        return entry.icon;
+                    }
                 }
+                final int[] hash = new int[1];
+                final Bitmap icon = makeIcon(componentName, info, hash);
+                if (icon == null) {
+                    return null;
+                }
+                return keepIcon(componentName, entry, icon, hash[0]);
+            }
+        });
+        FutureTask<Bitmap> running = mLoading.putIfAbsent(componentName, task);
+        if (running != null) {
+            synchronized (mLock) {
+                mSharedCount++;
             }
-            if (entry.title == null) {
-                entry.title = info.activityInfo.name;
+        } else {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                mLoading.remove(componentName, task);
             }
+        }
+        final Bitmap icon = waitFor(running);
+        return icon != null ? icon : mDefaultIcon;
+    }
 
-            entry.icon = Utilities.createIconBitmap(
-                    getFullResIcon(info), mContext);
+    /**
+     * Keeps icon, whose pixels hash to hash, as the icon of entry, and returns
+     * the bitmap to use for it: an icon with the same pixels that is already
+     * in memory, or icon itself.
+     */
+    private Bitmap keepIcon(ComponentName componentName, CacheEntry entry, Bitmap icon,
+            int hash) {
+        synchronized (mLock) {
+            // The entry may have been removed meanwhile, then the icon is
+            // not kept.
+            if (mCache.get(componentName) != entry) {
+                return icon;
+            }
+            if (entry.icon != null) {
+                return entry.icon;
+            }
+            entry.icon = mInterner.acquire(icon, hash);
+            if (!mPins.containsKey(componentName)) {
+                mLru.put(componentName, entry);
+            }
+            final Bitmap kept = entry.icon;
+            // This may drop the new icon at once if nothing else can go; the
+            // caller still gets it.
+            trimLocked();
+            return kept;
         }
-        return entry;
     }
 
+    private Bitmap waitFor(FutureTask<Bitmap> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Could not make icon", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the icon of componentName, read from disk or rendered, and puts
+     * its {@link IconInterner#hash(Bitmap)} in outHash[0]. An icon read from
+     * disk is not hashed again, its hash is stored with it.
+     */
+    private Bitmap makeIcon(ComponentName componentName, ActivityInfo info, int[] outHash) {
+        final PackageInfo pi = getPackageInfo(componentName.getPackageName());
+        final int size = Utilities.getIconTextureSize(mContext);
+        Bitmap icon = null;
+        if (pi != null) {
+            icon = mDiskCache.get(componentName, pi, mIconDpi, size, outHash);
+        }
+        if (icon == null) {
+            if (info == null) {
+                try {
+                    info = mPackageManager.getActivityInfo(componentName, 0);
+                } catch (PackageManager.NameNotFoundException e) {
+                    return null;
+                }
+            }
+            icon = Utilities.createIconBitmap(getFullResIcon(info), mContext);
+            outHash[0] = IconInterner.hash(icon);
+            if (pi != null) {
+                mDiskCache.put(componentName, pi, mIconDpi, icon, outHash[0]);
+            }
+        }
+        return icon;
+    }
+
+    /**
+     * Drops the least recently used icons that are not pinned until the cache
+     * is within budget.
+     */
+    private void trimLocked() {
+        final Iterator<CacheEntry> it = mLru.values().iterator();
+        // An icon shared with other entries only frees memory once they are
+        // all dropped.
+        while (mInterner.bytes() > mMaxSize && it.hasNext()) {
+            final CacheEntry entry = it.next();
+            it.remove();
+            releaseIconLocked(entry);
+            mEvictionCount++;
+        }
+    }
+
+    private PackageInfo getPackageInfo(String packageName) {
+        PackageInfo pi = mPackageInfos.get(packageName);
+        if (pi == null) {
+            try {
+                pi = mPackageManager.getPackageInfo(packageName, 0);
+                mPackageInfos.put(packageName, pi);
+            } catch (PackageManager.NameNotFoundException e) {
+                pi = null;
+            }
+        }
+        return pi;
+    }
+
+    /**
+     * Returns the icons that are in memory.
+     */
     public HashMap<ComponentName, Bitmap> getAllIcons() {
-        synchronized (mCache) {
+        synchronized (mLock) {
             HashMap<ComponentName, Bitmap> set = new HashMap<ComponentName, Bitmap>();
-            for (ComponentName cn : mCache.keySet()) {
-                final CacheEntry e = mCache.get(cn);
-                set.put(cn, e.icon);
+            for (Map.Entry<ComponentName, CacheEntry> e : mCache.entrySet()) {
+                if (e.getValue().icon != null) {
+                    set.put(e.getKey(), e.getValue().icon);
+                }
             }
             return set;
         }
     }
+
+    public int hitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    public int missCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * Returns how many misses waited for an icon another thread was making.
+     */
+    public int sharedCount() {
+        synchronized (mLock) {
+            return mSharedCount;
+        }
+    }
+
+    public int evictionCount() {
+        synchronized (mLock) {
+            return mEvictionCount;
+        }
+    }
+
+    /**
+     * Returns the bytes taken by the icons in memory, pinned ones included.
+     * A bitmap shared by several entries is counted once.
+     */
+    public int size() {
+        synchronized (mLock) {
+            return mInterner.bytes();
+        }
+    }
+
+    /**
+     * Returns the bytes the icons in memory would take more if icons with the
+     * same pixels did not share one bitmap.
+     */
+    public long savedSize() {
+        synchronized (mLock) {
+            return mInterner.savedBytes();
+        }
+    }
+
+    public int maxSize() {
+        synchronized (mLock) {
+            return mMaxSize;
+        }
+    }
+
+    public void dumpState() {
+        synchronized (mLock) {
+            Log.d(TAG, "size=" + mInterner.bytes() + " maxSize=" + mMaxSize
+                    + " saved=" + mInterner.savedBytes() + " bitmaps=" + mInterner.count()
+                    + " entries=" + mCache.size()
+                    + " packages=" + mPackages.size()
+                    + " inMemory=" + (mLru.size() + countPinnedInMemoryLocked())
+                    + " pinned=" + mPins.size() + " hits=" + mHitCount + " misses="
+                    + mMissCount + " shared=" + mSharedCount + " evictions="
+                    + mEvictionCount + " loading=" + mLoading.size());
+        }
+    }
+
+    private int countPinnedInMemoryLocked() {
+        int count = 0;
+        for (ComponentName cn : mPins.keySet()) {
+            final CacheEntry e = mCache.get(cn);
+            if (e != null && e.icon != null) {
+                count++;
+            }
+        }
+        return count;
+    }
 }
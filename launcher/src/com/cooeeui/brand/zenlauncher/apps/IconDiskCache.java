@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Second tier of the IconCache: rendered icons kept on disk, so that a new
+ * process does not have to inflate the resources of every app again. An icon
+ * is only used while the versionCode and lastUpdateTime of its package, the
+ * icon density and the icon size are the ones it was stored with. The
+ * {@link IconInterner#hash(Bitmap)} of each icon is stored with it, so that
+ * icons read back are not hashed again.
+ * <p>
+ * The whole table is read in one query on first use; writes are batched on a
+ * background thread.
+ */
+class IconDiskCache extends SQLiteOpenHelper {
+    private static final String TAG = "Launcher.IconDiskCache";
+    private static final boolean DEBUG = false;
+
+    private static final String DATABASE_NAME = "icons.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_ICONS = "icons";
+    private static final String COMPONENT = "component";
+    private static final String VERSION_CODE = "versionCode";
+    private static final String LAST_UPDATE_TIME = "lastUpdateTime";
+    private static final String DPI = "dpi";
+    private static final String SIZE = "size";
+    private static final String ICON = "icon";
+    private static final String HASH = "hash";
+
+    private static final String[] COLUMNS = new String[] {
+            COMPONENT, VERSION_CODE, LAST_UPDATE_TIME, DPI, SIZE, ICON, HASH
+    };
+
+    private static class Entry {
+        int versionCode;
+        long lastUpdateTime;
+        int dpi;
+        int size;
+        byte[] data;
+        int hash;
+        // Decoded by getAny(), kept for get().
+        Bitmap icon;
+    }
+
+    private static class PendingWrite {
+        final String component;
+        final int versionCode;
+        final long lastUpdateTime;
+        final int dpi;
+        final Bitmap icon;
+        final int hash;
+
+        PendingWrite(String component, int versionCode, long lastUpdateTime, int dpi,
+                Bitmap icon, int hash) {
+            this.component = component;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+            this.dpi = dpi;
+            this.icon = icon;
+            this.hash = hash;
+        }
+    }
+
+    private final int mDensityDpi;
+
+    // The rows read by the first lookup, by component. Entries are removed as
+    // they are used. null before the first lookup, and empty once released.
+    private HashMap<String, Entry> mPreloaded;
+    private boolean mReleased;
+
+    // Writes and deletes waiting for the writer thread. A null icon deletes.
+    private final ArrayList<PendingWrite> mPending = new ArrayList<PendingWrite>();
+    private Handler mWriter;
+
+    IconDiskCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mDensityDpi = context.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                COMPONENT + " TEXT PRIMARY KEY," +
+                VERSION_CODE + " INTEGER," +
+                LAST_UPDATE_TIME + " INTEGER," +
+                DPI + " INTEGER," +
+                SIZE + " INTEGER," +
+                ICON + " BLOB," +
+                HASH + " INTEGER" +
+                ");");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // It is only a cache.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
+        onCreate(db);
+    }
+
+    /**
+     * Returns the stored icon of component if it is still valid for the
+     * package pi, the density dpi and the icon size, null otherwise. The
+     * hash stored with the icon is put in outHash[0].
+     */
+    Bitmap get(ComponentName component, PackageInfo pi, int dpi, int size, int[] outHash) {
+        final Entry e;
+        synchronized (this) {
+            final String key = component.flattenToShortString();
+            if (!mReleased) {
+                preloadLocked();
+                e = mPreloaded.remove(key);
+            } else {
+                e = query(key);
+            }
+        }
+        if (e == null || e.versionCode != pi.versionCode
+                || e.lastUpdateTime != pi.lastUpdateTime || e.dpi != dpi || e.size != size) {
+            return null;
+        }
+        outHash[0] = e.hash;
+        return e.icon != null ? e.icon : decode(e);
+    }
+
+    /**
+     * Returns the stored icon of component for the density dpi and the icon
+     * size, without checking that the package has not been updated since.
+     * Good enough to show something before the packages are queried.
+     */
+    Bitmap getAny(ComponentName component, int dpi, int size) {
+        final Entry e;
+        synchronized (this) {
+            if (mReleased) {
+                return null;
+            }
+            preloadLocked();
+            e = mPreloaded.get(component.flattenToShortString());
+            if (e == null || e.dpi != dpi || e.size != size) {
+                return null;
+            }
+            if (e.icon == null) {
+                e.icon = decode(e);
+            }
+            return e.icon;
+        }
+    }
+
+    /**
+     * Stores the icon of component, rendered for package pi and density dpi,
+     * with its hash.
+     */
+    void put(ComponentName component, PackageInfo pi, int dpi, Bitmap icon, int hash) {
+        enqueue(new PendingWrite(component.flattenToShortString(), pi.versionCode,
+                pi.lastUpdateTime, dpi, icon, hash));
+    }
+
+    /**
+     * Forgets the stored icon of component.
+     */
+    void remove(ComponentName component) {
+        enqueue(new PendingWrite(component.flattenToShortString(), 0, 0, 0, null, 0));
+    }
+
+    /**
+     * Drops the rows read by the first lookup that have not been used. If
+     * prune is set they are also deleted, except for the components of keep:
+     * a full load has just asked for every icon it needs.
+     */
+    void release(boolean prune, Set<ComponentName> keep) {
+        final HashMap<String, Entry> unused;
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            unused = mPreloaded;
+            mPreloaded = null;
+        }
+        if (!prune || unused == null) {
+            return;
+        }
+        for (ComponentName cn : keep) {
+            unused.remove(cn.flattenToShortString());
+        }
+        for (String component : unused.keySet()) {
+            enqueue(new PendingWrite(component, 0, 0, 0, null, 0));
+        }
+        if (DEBUG) {
+            Log.d(TAG, "pruning " + unused.size() + " icons");
+        }
+    }
+
+    private void preloadLocked() {
+        if (mPreloaded != null) {
+            return;
+        }
+        final long t = DEBUG ? SystemClock.uptimeMillis() : 0;
+        mPreloaded = new HashMap<String, Entry>();
+        Cursor c = null;
+        try {
+            c = getReadableDatabase().query(TABLE_ICONS, COLUMNS, null, null, null, null,
+                    null);
+            while (c.moveToNext()) {
+                mPreloaded.put(c.getString(0), readEntry(c));
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not read icons", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "read " + mPreloaded.size() + " icons in "
+                    + (SystemClock.uptimeMillis() - t) + "ms");
+        }
+    }
+
+    private Entry query(String component) {
+        Cursor c = null;
+        try {
+            c = getReadableDatabase().query(TABLE_ICONS, COLUMNS, COMPONENT + "=?",
+                    new String[] {
+                        component
+                    }, null, null, null);
+            return c.moveToFirst() ? readEntry(c) : null;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not read icon", e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private static Entry readEntry(Cursor c) {
+        final Entry e = new Entry();
+        e.versionCode = c.getInt(1);
+        e.lastUpdateTime = c.getLong(2);
+        e.dpi = c.getInt(3);
+        e.size = c.getInt(4);
+        e.data = c.getBlob(5);
+        e.hash = c.getInt(6);
+        return e;
+    }
+
+    private Bitmap decode(Entry e) {
+        if (e.data == null) {
+            return null;
+        }
+        final Bitmap icon = BitmapFactory.decodeByteArray(e.data, 0, e.data.length);
+        if (icon != null) {
+            icon.setDensity(mDensityDpi);
+        }
+        return icon;
+    }
+
+    private void enqueue(PendingWrite write) {
+        synchronized (mPending) {
+            mPending.add(write);
+            if (mPending.size() == 1) {
+                getWriter().post(mFlushPending);
+            }
+        }
+    }
+
+    private synchronized Handler getWriter() {
+        if (mWriter == null) {
+            final HandlerThread thread = new HandlerThread("launcher-icon-writer",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mWriter = new Handler(thread.getLooper());
+        }
+        return mWriter;
+    }
+
+    private final Runnable mFlushPending = new Runnable() {
+        public void run() {
+            final ArrayList<PendingWrite> pending;
+            synchronized (mPending) {
+                pending = new ArrayList<PendingWrite>(mPending);
+                mPending.clear();
+            }
+
+            // Compress outside of the transaction.
+            final HashMap<PendingWrite, byte[]> data = new HashMap<PendingWrite, byte[]>();
+            for (PendingWrite write : pending) {
+                if (write.icon != null) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    if (write.icon.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                        data.put(write, out.toByteArray());
+                    }
+                }
+            }
+
+            try {
+                final SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (PendingWrite write : pending) {
+                        if (write.icon == null) {
+                            db.delete(TABLE_ICONS, COMPONENT + "=?", new String[] {
+                                    write.component
+                            });
+                            continue;
+                        }
+                        final byte[] bytes = data.get(write);
+                        if (bytes == null) {
+                            continue;
+                        }
+                        final ContentValues values = new ContentValues();
+                        values.put(COMPONENT, write.component);
+                        values.put(VERSION_CODE, write.versionCode);
+                        values.put(LAST_UPDATE_TIME, write.lastUpdateTime);
+                        values.put(DPI, write.dpi);
+                        values.put(SIZE, write.icon.getWidth());
+                        values.put(ICON, bytes);
+                        values.put(HASH, write.hash);
+                        db.insertWithOnConflict(TABLE_ICONS, null, values,
+                                SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Could not write icons", e);
+            }
+            if (DEBUG) {
+                Log.d(TAG, "wrote " + pending.size() + " icons");
+            }
+        }
+    };
+}
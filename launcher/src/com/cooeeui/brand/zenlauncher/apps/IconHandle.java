@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+
+/**
+ * An icon handed out by {@link IconCache}, with counted users. Whoever draws
+ * the icon takes a reference with {@link #acquire()} and gives it back with
+ * {@link #release()}; the bitmap is only guaranteed to be usable between the
+ * two. Items of the model keep handles without acquiring them.
+ * <p>
+ * While an app icon is acquired, IconCache keeps it pinned in memory. A
+ * built-in icon belongs to its handle only: when the last user releases it,
+ * its bitmap goes back to the pool of BitmapUtils, and it is loaded again by
+ * the next {@link #acquire()}.
+ * <p>
+ * Only used on the main thread once created.
+ */
+public final class IconHandle {
+    static final int TYPE_APP = 0;
+    static final int TYPE_BUILTIN = 1;
+    // A bitmap nobody frees, such as a default icon.
+    static final int TYPE_FIXED = 2;
+
+    private final IconCache mOwner;
+    private final int mType;
+    private final ComponentName mComponent;
+    private final int mIconId;
+    private final int mSize;
+
+    private Bitmap mBitmap;
+    private int mRefs;
+
+    IconHandle(IconCache owner, int type, ComponentName component, int iconId, int size,
+            Bitmap bitmap) {
+        mOwner = owner;
+        mType = type;
+        mComponent = component;
+        mIconId = iconId;
+        mSize = size;
+        mBitmap = bitmap;
+    }
+
+    /**
+     * Takes a reference on the icon, and returns this handle.
+     */
+    public IconHandle acquire() {
+        if (mRefs++ == 0) {
+            if (mType == TYPE_APP) {
+                mOwner.pin(mComponent);
+            } else if (mType == TYPE_BUILTIN && mBitmap == null) {
+                mBitmap = mOwner.loadBuiltinIcon(mIconId, mSize);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Gives back a reference taken with {@link #acquire()}. The bitmap must
+     * not be drawn by the caller anymore.
+     */
+    public void release() {
+        if (mRefs <= 0) {
+            throw new IllegalStateException("IconHandle released more than acquired");
+        }
+        if (--mRefs > 0) {
+            return;
+        }
+        if (mType == TYPE_APP) {
+            mOwner.unpin(mComponent);
+        } else if (mType == TYPE_BUILTIN && mBitmap != null) {
+            mOwner.releaseBuiltinIcon(mBitmap);
+            mBitmap = null;
+        }
+    }
+
+    /**
+     * Returns the bitmap of the icon. May be null for a built-in icon that is
+     * not acquired.
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Returns the app whose icon this is, or null for a built-in or fixed
+     * icon.
+     */
+    public ComponentName getComponent() {
+        return mComponent;
+    }
+
+    public boolean isAcquired() {
+        return mRefs > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "IconHandle(type=" + mType + " component=" + mComponent + " iconId=" + mIconId
+                + " refs=" + mRefs + ")";
+    }
+}
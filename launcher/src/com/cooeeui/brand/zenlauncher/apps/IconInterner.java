@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * Makes icons with the same pixels share one Bitmap: the activities of a
+ * package often have the same icon, and every app without one gets its own
+ * rendering of sym_def_app_icon. Icons are looked up by a hash of their
+ * pixels and compared in full before being shared.
+ * <p>
+ * Each use of an icon is counted. An icon is forgotten when its last user
+ * releases it, and only then does it stop counting in {@link #bytes()}.
+ * <p>
+ * Not thread safe, except for {@link #hash(Bitmap)}; IconCache calls it with
+ * its lock held.
+ */
+class IconInterner {
+    private static class Shared {
+        final Bitmap bitmap;
+        final int hash;
+        int refs;
+
+        Shared(Bitmap bitmap, int hash) {
+            this.bitmap = bitmap;
+            this.hash = hash;
+        }
+    }
+
+    // Scratch space for hash(), one per thread.
+    private static final ThreadLocal<ByteBuffer> sPixels = new ThreadLocal<ByteBuffer>();
+
+    private final HashMap<Integer, ArrayList<Shared>> mByHash =
+            new HashMap<Integer, ArrayList<Shared>>();
+    private final HashMap<Bitmap, Shared> mByBitmap = new HashMap<Bitmap, Shared>();
+
+    // Bytes of the distinct icons, and bytes not allocated thanks to sharing.
+    private int mBytes;
+    private long mSavedBytes;
+
+    /**
+     * Returns a hash of the size and pixels of icon. Can be called from any
+     * thread, without the lock of the caller.
+     */
+    static int hash(Bitmap icon) {
+        final int count = icon.getRowBytes() * icon.getHeight();
+        ByteBuffer pixels = sPixels.get();
+        if (pixels == null || pixels.capacity() < count) {
+            pixels = ByteBuffer.allocate(count);
+            sPixels.set(pixels);
+        }
+        pixels.clear();
+        icon.copyPixelsToBuffer(pixels);
+
+        final byte[] data = pixels.array();
+        int hash = 31 * icon.getWidth() + icon.getHeight();
+        for (int i = 0; i < count; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Starts a use of icon, whose {@link #hash(Bitmap)} is hash, and returns
+     * the bitmap to use instead: an icon with the same pixels that is already
+     * in use, or icon itself. For an icon read back from disk, hash is the
+     * one of the icon as it was rendered; only icons with the same hash are
+     * compared, so at worst such an icon is not shared.
+     */
+    Bitmap acquire(Bitmap icon, int hash) {
+        Shared shared = mByBitmap.get(icon);
+        if (shared == null) {
+            ArrayList<Shared> candidates = mByHash.get(hash);
+            if (candidates != null) {
+                for (Shared s : candidates) {
+                    if (s.bitmap.sameAs(icon)) {
+                        shared = s;
+                        break;
+                    }
+                }
+            }
+            if (shared == null) {
+                shared = new Shared(icon, hash);
+                if (candidates == null) {
+                    candidates = new ArrayList<Shared>(1);
+                    mByHash.put(hash, candidates);
+                }
+                candidates.add(shared);
+                mByBitmap.put(icon, shared);
+                mBytes += icon.getByteCount();
+            }
+        }
+        if (shared.refs > 0) {
+            mSavedBytes += shared.bitmap.getByteCount();
+        }
+        shared.refs++;
+        return shared.bitmap;
+    }
+
+    /**
+     * Ends a use of icon started with {@link #acquire}.
+     */
+    void release(Bitmap icon) {
+        final Shared shared = icon != null ? mByBitmap.get(icon) : null;
+        if (shared == null) {
+            return;
+        }
+        shared.refs--;
+        if (shared.refs > 0) {
+            mSavedBytes -= shared.bitmap.getByteCount();
+            return;
+        }
+        mByBitmap.remove(icon);
+        final ArrayList<Shared> candidates = mByHash.get(shared.hash);
+        if (candidates != null) {
+            candidates.remove(shared);
+            if (candidates.isEmpty()) {
+                mByHash.remove(shared.hash);
+            }
+        }
+        mBytes -= icon.getByteCount();
+    }
+
+    /**
+     * Forgets every icon, as if they were all released.
+     */
+    void clear() {
+        mByHash.clear();
+        mByBitmap.clear();
+        mBytes = 0;
+        mSavedBytes = 0;
+    }
+
+    /**
+     * Returns the bytes of the distinct icons in use.
+     */
+    int bytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the bytes the icons in use would take more if they did not
+     * share their bitmaps.
+     */
+    long savedBytes() {
+        return mSavedBytes;
+    }
+
+    /**
+     * Returns the number of distinct icons in use.
+     */
+    int count() {
+        return mByBitmap.size();
+    }
+}
@@ -16,13 +16,15 @@
 
 package com.cooeeui.brand.zenlauncher.apps;
 
+import java.util.Set;
+
+import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.cooeeui.brand.zenlauncher.LauncherSettings;
@@ -33,9 +35,10 @@ import com.cooeeui.brand.zenlauncher.scenes.utils.IconNameOrId;
  */
 public class ShortcutInfo extends ItemInfo {
 
-    public Bitmap mIcon;
-
-    public boolean mRecycle;
+    /**
+     * The icon, not acquired by the item: views acquire it while they draw it.
+     */
+    public IconHandle mIcon;
 
     public int mIconId;
 
@@ -48,12 +51,42 @@ public class ShortcutInfo extends ItemInfo {
         super();
     }
 
-    public ShortcutInfo(AppInfo info) {
+    private static final int LAUNCH_FLAGS =
+            Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED;
+
+    /**
+     * Returns whether intent is the plain intent launching an activity, which
+     * {@link #makeLaunchIntent(ComponentName)} makes again from its component.
+     */
+    public static boolean isLaunchIntent(Intent intent) {
+        if (intent == null || intent.getComponent() == null
+                || !Intent.ACTION_MAIN.equals(intent.getAction())
+                || intent.getData() != null || intent.getType() != null
+                || intent.getPackage() != null || intent.getExtras() != null
+                || intent.getFlags() != LAUNCH_FLAGS) {
+            return false;
+        }
+        final Set<String> categories = intent.getCategories();
+        return categories != null && categories.size() == 1
+                && categories.contains(Intent.CATEGORY_LAUNCHER);
+    }
+
+    /**
+     * Returns the intent launching component, as an app of the drawer does.
+     */
+    public static Intent makeLaunchIntent(ComponentName component) {
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.setComponent(component);
+        intent.setFlags(LAUNCH_FLAGS);
+        return intent;
+    }
+
+    public ShortcutInfo(AppInfo info, IconCache iconCache) {
         super(info);
         intent = new Intent(info.intent);
-        mIcon = info.iconBitmap;
+        mIcon = iconCache.getIconHandle(info);
         mIconId = -1;
-        mRecycle = false;
     }
 
     public static PackageInfo getPackageInfo(Context context, String packageName) {
@@ -71,11 +104,24 @@ public class ShortcutInfo extends ItemInfo {
     public void onAddToDatabase(ContentValues values) {
         String uri = intent != null ? intent.toUri(0) : null;
         values.put(LauncherSettings.Favorites.INTENT, uri);
+        putComponent(values, intent);
 
         String name = IconNameOrId.getIconName(mIconId);
         values.put(LauncherSettings.Favorites.ICON_NAME, name);
     }
 
+    /**
+     * Puts the package and class columns of intent into values, null if it is
+     * not a plain launch intent.
+     */
+    public static void putComponent(ContentValues values, Intent intent) {
+        final ComponentName cn = isLaunchIntent(intent) ? intent.getComponent() : null;
+        values.put(LauncherSettings.Favorites.PACKAGE_NAME,
+                cn != null ? cn.getPackageName() : null);
+        values.put(LauncherSettings.Favorites.CLASS_NAME,
+                cn != null ? cn.getClassName() : null);
+    }
+
     @Override
     public String toString() {
         return "ShortcutInfo(title=" + title.toString() + "intent=" + intent + "id=" + this.id
@@ -16,7 +16,14 @@
 
 package com.cooeeui.brand.zenlauncher.apps;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Locale;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
@@ -53,26 +60,47 @@ import com.cooeeui.brand.zenlauncher.R;
 final public class Utilities {
     private static final String TAG = "Launcher.Utilities";
 
-    private static int sIconWidth = -1;
-    private static int sIconHeight = -1;
-    public static int sIconTextureWidth = -1;
-    public static int sIconTextureHeight = -1;
+    // Set once by initStatics(), or by setIconSize(). sIconWidth is written
+    // last, a thread that sees it set sees the other sizes too.
+    private static volatile int sIconWidth = -1;
+    private static volatile int sIconHeight = -1;
+    public static volatile int sIconTextureWidth = -1;
+    public static volatile int sIconTextureHeight = -1;
+    private static final Object sInitLock = new Object();
 
     private static final Paint sBlurPaint = new Paint();
     private static final Paint sGlowColorPressedPaint = new Paint();
     private static final Paint sGlowColorFocusedPaint = new Paint();
     private static final Paint sDisabledPaint = new Paint();
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
+
+    /**
+     * What one thread needs to render icons. Each thread has its own, so
+     * icons can be rendered in parallel.
+     */
+    private static class RenderContext {
+        final Canvas canvas = new Canvas();
+        final Rect oldBounds = new Rect();
+        final Paint debugPaint = new Paint();
+
+        RenderContext() {
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+            debugPaint.setColor(0xffcccc00);
+        }
+    }
+
+    private static final ThreadLocal<RenderContext> sRenderContext =
+            new ThreadLocal<RenderContext>() {
+                @Override
+                protected RenderContext initialValue() {
+                    return new RenderContext();
+                }
+            };
 
     public static Paint paint = new Paint();
     public static Canvas canvas = new Canvas();
     public static FontMetrics fontMetrics = new FontMetrics();
 
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-    }
     static int sColors[] = {
             0xffff0000, 0xff00ff00, 0xff0000ff
     };
@@ -126,73 +154,68 @@ final public class Utilities {
      * Returns a bitmap suitable for the all apps view.
      */
     public static Bitmap createIconBitmap(Drawable icon, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
+        ensureStatics(context);
+
+        int width = sIconWidth;
+        int height = sIconHeight;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                bitmapDrawable.setTargetDensity(context.getResources()
+                        .getDisplayMetrics());
             }
-
-            int width = sIconWidth;
-            int height = sIconHeight;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    bitmapDrawable.setTargetDensity(context.getResources()
-                            .getDisplayMetrics());
-                }
-            }
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // Scale the icon proportionally to the icon dimensions
-                final float ratio = (float) sourceWidth / sourceHeight;
-                if (sourceWidth > sourceHeight) {
-                    height = (int) (width / ratio);
-                } else if (sourceHeight > sourceWidth) {
-                    width = (int) (height * ratio);
-                }
-            }
-
-            // no intrinsic size --> use default size
-            int textureWidth = sIconTextureWidth;
-            int textureHeight = sIconTextureHeight;
-
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth,
-                    textureHeight, Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (textureWidth - width) / 2;
-            final int top = (textureHeight - height) / 2;
-
-            @SuppressWarnings("all")
-            // suppress dead code warning
-            final boolean debug = false;
-            if (debug) {
-                // draw a big box for the icon for debugging
-                canvas.drawColor(sColors[sColorIndex]);
-                if (++sColorIndex >= sColors.length)
-                    sColorIndex = 0;
-                Paint debugPaint = new Paint();
-                debugPaint.setColor(0xffcccc00);
-                canvas.drawRect(left, top, left + width, top + height,
-                        debugPaint);
+        }
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // Scale the icon proportionally to the icon dimensions
+            final float ratio = (float) sourceWidth / sourceHeight;
+            if (sourceWidth > sourceHeight) {
+                height = (int) (width / ratio);
+            } else if (sourceHeight > sourceWidth) {
+                width = (int) (height * ratio);
             }
+        }
 
-            sOldBounds.set(icon.getBounds());
-            icon.setBounds(left, top, left + width, top + height);
-            icon.draw(canvas);
-            icon.setBounds(sOldBounds);
-            canvas.setBitmap(null);
+        // no intrinsic size --> use default size
+        int textureWidth = sIconTextureWidth;
+        int textureHeight = sIconTextureHeight;
 
-            return bitmap;
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth,
+                textureHeight, Bitmap.Config.ARGB_8888);
+        final RenderContext rc = sRenderContext.get();
+        final Canvas canvas = rc.canvas;
+        canvas.setBitmap(bitmap);
+
+        final int left = (textureWidth - width) / 2;
+        final int top = (textureHeight - height) / 2;
+
+        @SuppressWarnings("all")
+        // suppress dead code warning
+        final boolean debug = false;
+        if (debug) {
+            // draw a big box for the icon for debugging
+            canvas.drawColor(sColors[sColorIndex]);
+            if (++sColorIndex >= sColors.length)
+                sColorIndex = 0;
+            canvas.drawRect(left, top, left + width, top + height,
+                    rc.debugPaint);
         }
+
+        rc.oldBounds.set(icon.getBounds());
+        icon.setBounds(left, top, left + width, top + height);
+        icon.draw(canvas);
+        icon.setBounds(rc.oldBounds);
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
 
     /**
@@ -204,19 +227,15 @@ final public class Utilities {
      *         thumbnail could not be created.
      */
     public static Bitmap resampleIconBitmap(Bitmap bitmap, Context context) {
-        synchronized (sCanvas) { // we share the statics :-(
-            if (sIconWidth == -1) {
-                initStatics(context);
-            }
+        ensureStatics(context);
 
-            if (bitmap.getWidth() == sIconWidth
-                    && bitmap.getHeight() == sIconHeight) {
-                return bitmap;
-            } else {
-                final Resources resources = context.getResources();
-                return createIconBitmap(new BitmapDrawable(resources, bitmap),
-                        context);
-            }
+        if (bitmap.getWidth() == sIconWidth
+                && bitmap.getHeight() == sIconHeight) {
+            return bitmap;
+        } else {
+            final Resources resources = context.getResources();
+            return createIconBitmap(new BitmapDrawable(resources, bitmap),
+                    context);
         }
     }
 
@@ -328,15 +347,23 @@ final public class Utilities {
         return scale;
     }
 
+    private static void ensureStatics(Context context) {
+        if (sIconWidth == -1) {
+            synchronized (sInitLock) {
+                if (sIconWidth == -1) {
+                    initStatics(context);
+                }
+            }
+        }
+    }
+
     private static void initStatics(Context context) {
         final Resources resources = context.getResources();
         final DisplayMetrics metrics = resources.getDisplayMetrics();
         final float density = metrics.density;
 
-        sIconWidth = sIconHeight = 96;// (int) resources
-        // .getDimension(R.dimen.app_icon_size);
-        sIconTextureWidth = sIconTextureHeight = sIconWidth;
-
+        // The paints are set up before the sizes are published, and not
+        // changed afterwards.
         sBlurPaint.setMaskFilter(new BlurMaskFilter(5 * density,
                 BlurMaskFilter.Blur.NORMAL));
         sGlowColorPressedPaint.setColor(0xffffc300);
@@ -346,11 +373,23 @@ final public class Utilities {
         cm.setSaturation(0.2f);
         sDisabledPaint.setColorFilter(new ColorMatrixColorFilter(cm));
         sDisabledPaint.setAlpha(0x88);
+
+        setIconSize(96);// (int) resources
+        // .getDimension(R.dimen.app_icon_size);
+    }
+
+    /**
+     * Returns the width of the icon bitmaps made by createIconBitmap.
+     */
+    public static int getIconTextureSize(Context context) {
+        ensureStatics(context);
+        return sIconTextureWidth;
     }
 
     public static void setIconSize(int widthPx) {
-        sIconWidth = sIconHeight = widthPx;
         sIconTextureWidth = sIconTextureHeight = widthPx;
+        sIconHeight = widthPx;
+        sIconWidth = widthPx;
     }
 
     public static void scaleRect(Rect r, float scale) {
@@ -388,4 +427,55 @@ final public class Utilities {
                     e);
         }
     }
+
+    /**
+     * Writes the contents of a file for {@link #writeFileAtomically}.
+     */
+    public interface FileContents {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes contents to file.tmp and renames it to file, so that a reader
+     * sees either the previous file or the complete new one. The tmp file
+     * is removed whenever the write or the rename fails.
+     */
+    public static void writeFileAtomically(File file, FileContents contents)
+            throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        boolean renamed = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            contents.writeTo(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+            renamed = true;
+        } finally {
+            closeSilently(out);
+            if (!renamed) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the tag that files holding localized text are stored with.
+     */
+    public static String getLocaleTag() {
+        return Locale.getDefault().toString();
+    }
+
+    public static void closeSilently(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
 }
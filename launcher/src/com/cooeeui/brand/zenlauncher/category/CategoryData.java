@@ -2,37 +2,135 @@
 package com.cooeeui.brand.zenlauncher.category;
 
 import java.util.ArrayList;
-
-import android.content.Context;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
 
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
 
 public class CategoryData {
     public static ArrayList<ArrayList<AppInfo>> datas;
 
-    public static void init(Context context, ArrayList<AppInfo> apps) {
-        CategoryHelper.init(context);
-
+    /**
+     * Classifies apps by the category the model gave them, see
+     * {@link com.cooeeui.brand.zenlauncher.apps.AppMetadataStore}. Hidden
+     * apps are left out.
+     */
+    public static void init(ArrayList<AppInfo> apps) {
         clear();
         makeup();
 
+        append(apps);
+    }
+
+    /**
+     * Classifies apps into the existing categories without touching the apps
+     * that are already there. Used while the app list is bound in batches.
+     */
+    public static void append(ArrayList<AppInfo> apps) {
+        if (datas == null) {
+            makeup();
+        }
+
+        for (AppInfo app : apps) {
+            if (app.hide) {
+                continue;
+            }
+            datas.get(getCategory(app)).add(app);
+        }
+    }
+
+    /**
+     * Classifies apps and inserts them where comparator puts them, leaving the
+     * other apps as they are. Used for the apps added after a bind.
+     */
+    public static void insert(ArrayList<AppInfo> apps, Comparator<AppInfo> comparator) {
+        if (datas == null) {
+            makeup();
+        }
+
         for (AppInfo app : apps) {
-            int id = CategoryHelper.getCategoryId(app);
-            if (id == CategoryHelper.OTHER) {
-                // Special handle for other, be regarded as tool.
-                datas.get(CategoryHelper.TOOL).add(app);
-            } else {
-                datas.get(id).add(app);
+            if (app.hide) {
+                continue;
             }
-            // Logger.verbose("suyu", "compoment name = " + app.componentName +
-            // ", id = " + id);
+            final ArrayList<AppInfo> data = datas.get(getCategory(app));
+            int index = Collections.binarySearch(data, app, comparator);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            data.add(index, app);
         }
     }
 
+    /**
+     * Removes apps from their categories, in one pass over each category.
+     */
+    public static void remove(Collection<AppInfo> apps) {
+        if (datas == null || apps.isEmpty()) {
+            return;
+        }
+
+        final HashSet<AppInfo> removed = new HashSet<AppInfo>(apps);
+        for (ArrayList<AppInfo> data : datas) {
+            data.removeAll(removed);
+        }
+    }
+
+    /**
+     * Puts each new app of replacements in the place of the app it is mapped
+     * from, in one pass over each category.
+     */
+    public static void replaceAll(Map<AppInfo, AppInfo> replacements) {
+        if (datas == null || replacements.isEmpty()) {
+            return;
+        }
+
+        for (ArrayList<AppInfo> data : datas) {
+            for (int i = 0; i < data.size(); i++) {
+                final AppInfo app = replacements.get(data.get(i));
+                if (app != null) {
+                    data.set(i, app);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves app to where comparator puts it in its category, for instance
+     * after its title changed.
+     *
+     * @return whether app moved.
+     */
+    public static boolean reposition(AppInfo app, Comparator<AppInfo> comparator) {
+        if (datas == null) {
+            return false;
+        }
+
+        for (ArrayList<AppInfo> data : datas) {
+            final int index = data.indexOf(app);
+            if (index < 0) {
+                continue;
+            }
+            if ((index == 0 || comparator.compare(data.get(index - 1), app) <= 0)
+                    && (index == data.size() - 1
+                    || comparator.compare(app, data.get(index + 1)) <= 0)) {
+                return false;
+            }
+            data.remove(index);
+            int position = Collections.binarySearch(data, app, comparator);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            data.add(position, app);
+            return true;
+        }
+        return false;
+    }
+
     public static void destroy() {
         clear();
-
-        CategoryHelper.close();
     }
     
     public static int getSize(int index) {
@@ -43,6 +141,11 @@ public class CategoryData {
         }
     }
 
+    private static int getCategory(AppInfo app) {
+        // Special handle for other, be regarded as tool.
+        return app.category == CategoryHelper.OTHER ? CategoryHelper.TOOL : app.category;
+    }
+
     private static void clear() {
         if (datas != null) {
             for (ArrayList<AppInfo> data : datas) {
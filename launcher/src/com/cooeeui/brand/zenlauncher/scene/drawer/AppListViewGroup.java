@@ -1,6 +1,9 @@
 
 package com.cooeeui.brand.zenlauncher.scene.drawer;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.support.v4.app.Fragment;
@@ -16,6 +19,7 @@ import android.widget.FrameLayout;
 import android.widget.ImageView;
 
 import com.cooeeui.brand.zenlauncher.Launcher;
+import com.cooeeui.brand.zenlauncher.LauncherAppState;
 import com.cooeeui.brand.zenlauncher.R;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
 import com.cooeeui.brand.zenlauncher.category.CategoryData;
@@ -36,6 +40,8 @@ public class AppListViewGroup extends FrameLayout {
     private BubbleView mBubbleView = null;
     private FrameLayout mSelectIcon = null;
     private ZenGridView mSelectGridView = null;
+    // The page shown, its icons are pinned in IconCache.
+    private GridFragment mPinnedPage = null;
 
     public DragController getmDragController() {
         return mDragController;
@@ -82,6 +88,7 @@ public class AppListViewGroup extends FrameLayout {
     class PageAdapter extends FragmentPagerAdapter {
         int mCount;
         int mTab;
+        GridFragment mPrimary;
 
         public PageAdapter(FragmentManager fm, int tab) {
             super(fm);
@@ -120,6 +127,17 @@ public class AppListViewGroup extends FrameLayout {
             return super.getItemPosition(object);
         }
 
+        @Override
+        public void setPrimaryItem(ViewGroup container, int position, Object object) {
+            super.setPrimaryItem(container, position, object);
+            if (mPrimary != object) {
+                mPrimary = (GridFragment) object;
+                if (mTab == AppListViewGroup.this.mTab) {
+                    pinPage(mPrimary);
+                }
+            }
+        }
+
         public void setCount(int count) {
             if (count > 0) {
                 mCount = count;
@@ -146,8 +164,32 @@ public class AppListViewGroup extends FrameLayout {
         invalidate();
     }
 
+    /**
+     * Redraws the cells that show apps, which were updated in place. The
+     * pages and the order of the apps are unchanged.
+     */
+    public void notifyAppsChanged(ArrayList<AppInfo> apps) {
+        final HashSet<AppInfo> changed = new HashSet<AppInfo>(apps);
+        for (int i = 0; i < mAdapters.length; i++) {
+            final ViewGroup pager = (ViewGroup) findViewById(R.id.pager_0 + 2 * i);
+            for (int j = 0; j < pager.getChildCount(); j++) {
+                if (!(pager.getChildAt(j) instanceof ViewGroup)) {
+                    continue;
+                }
+                final ViewGroup grid = (ViewGroup) pager.getChildAt(j);
+                for (int k = 0; k < grid.getChildCount(); k++) {
+                    final View icon = grid.getChildAt(k);
+                    if (changed.contains(icon.getTag())) {
+                        GridFragment.bindIcon(icon, (AppInfo) icon.getTag());
+                    }
+                }
+            }
+        }
+    }
+
     public void setTab(int tab) {
         mTab = tab;
+        pinPage(mAdapters[tab] != null ? mAdapters[tab].mPrimary : null);
 
         for (int i = 0; i < CategoryHelper.COUNT; i++) {
             if (i != mTab) {
@@ -158,6 +200,19 @@ public class AppListViewGroup extends FrameLayout {
         }
     }
 
+    private void pinPage(GridFragment page) {
+        if (page == mPinnedPage) {
+            return;
+        }
+        if (page != null) {
+            page.setPinIcons(true);
+        }
+        if (mPinnedPage != null) {
+            mPinnedPage.setPinIcons(false);
+        }
+        mPinnedPage = page;
+    }
+
     /**
      * 重新分类
      */
@@ -203,7 +258,7 @@ public class AppListViewGroup extends FrameLayout {
             ImageView image = (ImageView) v.findViewById(R.id.icon_image);
             int width = image.getRight() - image.getLeft();
             AppInfo info = (AppInfo) v.getTag();
-            Bitmap bitmap = info.iconBitmap;
+            Bitmap bitmap = LauncherAppState.getInstance().getIconCache().getIcon(info);
             mSelectIcon.setVisibility(View.INVISIBLE);
             mBubbleView = new BubbleView(mContext, bitmap, width);
             mDragController.startDrag(source, mBubbleView, width);
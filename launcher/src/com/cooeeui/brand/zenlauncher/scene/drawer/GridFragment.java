@@ -1,7 +1,10 @@
 
 package com.cooeeui.brand.zenlauncher.scene.drawer;
 
+import java.util.ArrayList;
+
 import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.util.Log;
@@ -16,8 +19,11 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.cooeeui.brand.zenlauncher.Launcher;
+import com.cooeeui.brand.zenlauncher.LauncherAppState;
 import com.cooeeui.brand.zenlauncher.R;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.IconCache;
+import com.cooeeui.brand.zenlauncher.apps.IconHandle;
 import com.cooeeui.brand.zenlauncher.category.CategoryData;
 import com.cooeeui.brand.zenlauncher.config.GridConfig;
 import com.cooeeui.brand.zenlauncher.scenes.ui.ZenGridView;
@@ -30,6 +36,11 @@ public class GridFragment extends Fragment {
     int mTab;
     BaseAdapter mAdapter;
 
+    // The icons of the apps of this page, acquired while the page is the one
+    // shown so that IconCache keeps them in memory.
+    private final ArrayList<IconHandle> mPinned = new ArrayList<IconHandle>();
+    private boolean mPinIcons;
+
     public static GridFragment newInstance(int tab, int position) {
         GridFragment fragment = new GridFragment();
         Log.v("suyu", "new grid fragment: " + position);
@@ -75,11 +86,49 @@ public class GridFragment extends Fragment {
         outState.putInt(KEY_POSITION, mPosition);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        setPinIcons(false);
+    }
+
     public void notifyDataSetChanged() {
         if (mAdapter != null) {
             Log.v("suyu", "GridFragment notifyDataSetChanged");
             mAdapter.notifyDataSetChanged();
         }
+        if (mPinIcons) {
+            updatePinnedIcons();
+        }
+    }
+
+    /**
+     * Keeps the icons of this page in memory while it is the page shown.
+     */
+    void setPinIcons(boolean pin) {
+        if (mPinIcons != pin) {
+            mPinIcons = pin;
+            updatePinnedIcons();
+        }
+    }
+
+    private void updatePinnedIcons() {
+        final IconCache iconCache = LauncherAppState.getInstance().getIconCache();
+        final ArrayList<IconHandle> old = new ArrayList<IconHandle>(mPinned);
+        mPinned.clear();
+        // Acquire the new set before releasing the old one, most of it is the
+        // same.
+        if (mPinIcons && CategoryData.datas != null) {
+            final ArrayList<AppInfo> apps = CategoryData.datas.get(mTab);
+            final int cpp = GridConfig.getCountPerPageOfDrawer();
+            final int end = Math.min(apps.size(), (mPosition + 1) * cpp);
+            for (int i = mPosition * cpp; i < end; i++) {
+                mPinned.add(iconCache.getIconHandle(apps.get(i)).acquire());
+            }
+        }
+        for (IconHandle icon : old) {
+            icon.release();
+        }
     }
 
     class GridAdapter extends BaseAdapter {
@@ -118,17 +167,6 @@ public class GridFragment extends Fragment {
                 GridView grid = (GridView) parent;
                 icon.setLayoutParams(new GridView.LayoutParams(grid.getColumnWidth(), grid
                         .getColumnWidth()));
-                // get app info.
-                AppInfo info = CategoryData.datas.get(mTab).get(
-                        position + GridConfig.getCountPerPageOfDrawer() * mPosition);
-                // set icon image.
-                ImageView image = (ImageView) icon.findViewById(R.id.icon_image);
-                image.setImageBitmap(info.iconBitmap);
-                // set icon text.
-                TextView text = (TextView) icon.findViewById(R.id.icon_text);
-                text.setText(info.title);
-                // set info to icon tag.
-                icon.setTag(info);
                 Launcher l = (Launcher) GridFragment.this.getActivity();
                 icon.setOnLongClickListener(l);
                 icon.setOnClickListener(new OnClickListener() {
@@ -139,6 +177,28 @@ public class GridFragment extends Fragment {
                         l.startActivitySafely(i.intent);
                     }
                 });
+                // The size of the image is only known after the first layout,
+                // then the icon can be bound at that size.
+                final View cell = icon;
+                icon.findViewById(R.id.icon_image).addOnLayoutChangeListener(
+                        new View.OnLayoutChangeListener() {
+                            @Override
+                            public void onLayoutChange(View v, int left, int top, int right,
+                                    int bottom, int oldLeft, int oldTop, int oldRight,
+                                    int oldBottom) {
+                                if (right - left != oldRight - oldLeft
+                                        || bottom - top != oldBottom - oldTop) {
+                                    v.post(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            if (cell.getTag() instanceof AppInfo) {
+                                                bindIcon(cell, (AppInfo) cell.getTag());
+                                            }
+                                        }
+                                    });
+                                }
+                            }
+                        });
                 // // TODO: move uninstall action to click at uninstall state.
                 // icon.setOnLongClickListener(new OnLongClickListener() {
                 // @Override
@@ -153,7 +213,49 @@ public class GridFragment extends Fragment {
             } else {
                 icon = convertView;
             }
+            // Bind the app every time, a recycled view may show another one
+            // and the icon or title may have been updated since.
+            AppInfo info = CategoryData.datas.get(mTab).get(
+                    position + GridConfig.getCountPerPageOfDrawer() * mPosition);
+            bindIcon(icon, info);
             return icon;
         }
     }
+
+    /**
+     * Shows info in a cell of the grid.
+     */
+    static void bindIcon(final View icon, final AppInfo info) {
+        // set icon image. Once the cell is laid out, ask for the icon at the
+        // size of the image so that it is drawn without scaling.
+        final ImageView image = (ImageView) icon.findViewById(R.id.icon_image);
+        final IconCache iconCache = LauncherAppState.getInstance().getIconCache();
+        final int size = Math.min(
+                image.getWidth() - image.getPaddingLeft() - image.getPaddingRight(),
+                image.getHeight() - image.getPaddingTop() - image.getPaddingBottom());
+        final IconCache.IconCallback callback = new IconCache.IconCallback() {
+            @Override
+            public void onIconReady(Bitmap loaded) {
+                if (icon.getTag() == info) {
+                    image.setImageBitmap(loaded);
+                }
+            }
+        };
+        Bitmap b = null;
+        if (size > 0) {
+            b = iconCache.getIcon(info.componentName, size, callback);
+        }
+        if (b == null) {
+            // Nothing is made on this thread: until the icon is ready, the
+            // cell shows what is in memory or a placeholder. The variant
+            // loads the icon itself when there is a size.
+            b = iconCache.getIcon(info, size > 0 ? null : callback);
+        }
+        image.setImageBitmap(b);
+        // set icon text.
+        TextView text = (TextView) icon.findViewById(R.id.icon_text);
+        text.setText(info.title);
+        // set info to icon tag.
+        icon.setTag(info);
+    }
 }
@@ -1,6 +1,8 @@
 
 package com.cooeeui.brand.zenlauncher.scenes;
 
+import java.util.ArrayList;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.AttributeSet;
@@ -10,6 +12,7 @@ import android.widget.LinearLayout;
 
 import com.cooeeui.brand.zenlauncher.Launcher;
 import com.cooeeui.brand.zenlauncher.R;
+import com.cooeeui.brand.zenlauncher.apps.AppInfo;
 import com.cooeeui.brand.zenlauncher.scene.drawer.AppListUtil;
 import com.cooeeui.brand.zenlauncher.scene.drawer.AppListViewGroup;
 import com.cooeeui.brand.zenlauncher.scene.drawer.AppTabViewGroup;
@@ -96,6 +99,10 @@ public class Drawer extends LinearLayout implements IAppGroup, DragSource {
         applistGroup.notifyDataSetChanged();
     }
 
+    public void notifyAppsChanged(ArrayList<AppInfo> apps) {
+        applistGroup.notifyAppsChanged(apps);
+    }
+
     public void startDrag(FrameLayout v, ZenGridView parentGridView) {
         applistGroup.startDrag(this, v, parentGridView);
         tabViewGroup.startDrag();
@@ -3,6 +3,7 @@ package com.cooeeui.brand.zenlauncher.scenes;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 import android.animation.Animator;
 import android.animation.Animator.AnimatorListener;
@@ -26,6 +27,7 @@ import com.cooeeui.brand.zenlauncher.LauncherModel;
 import com.cooeeui.brand.zenlauncher.R;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
 import com.cooeeui.brand.zenlauncher.apps.IconCache;
+import com.cooeeui.brand.zenlauncher.apps.IconHandle;
 import com.cooeeui.brand.zenlauncher.apps.ShortcutInfo;
 import com.cooeeui.brand.zenlauncher.config.IconConfig;
 import com.cooeeui.brand.zenlauncher.scenes.ui.BubbleView;
@@ -61,7 +63,7 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
     private View mSearchBar;
     private View mEditBottomView;
 
-    private Bitmap mDefaultIcon;
+    private IconHandle mDefaultIcon;
 
     private static final int IN_DURATION = 300;
     private static final int OUT_DURATION = 200;
@@ -235,8 +237,31 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
             BubbleView view = mBubbleViews.get(i);
             ShortcutInfo info = (ShortcutInfo) view.getTag();
             if (info.intent != null && cns.contains(info.intent.getComponent())) {
-                info.mIcon = mIconCache.getIcon(info.intent);
-                view.changeBitmap(info.mIcon);
+                info.mIcon = mIconCache.getIconHandle(info.intent);
+                view.setIcon(info.mIcon);
+                loadIconVariant(view);
+            }
+        }
+    }
+
+    /**
+     * Shows the icon of icons at the same index for each item of items, and
+     * releases the icons shown before.
+     */
+    public void updateIconsFromBind(ArrayList<ShortcutInfo> items, ArrayList<IconHandle> icons) {
+        final IdentityHashMap<ShortcutInfo, IconHandle> updates =
+                new IdentityHashMap<ShortcutInfo, IconHandle>();
+        for (int i = 0; i < items.size(); i++) {
+            final ShortcutInfo info = items.get(i);
+            info.mIcon = icons.get(i);
+            updates.put(info, info.mIcon);
+        }
+
+        for (BubbleView view : mBubbleViews) {
+            final IconHandle icon = updates.get(view.getTag());
+            if (icon != null) {
+                view.setIcon(icon);
+                loadIconVariant(view);
             }
         }
     }
@@ -259,8 +284,8 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
         update();
     }
 
-    private void addBubbleView(ShortcutInfo info, Bitmap b) {
-        BubbleView v = new BubbleView(mLauncher, b);
+    private void addBubbleView(ShortcutInfo info, IconHandle icon) {
+        BubbleView v = new BubbleView(mLauncher, icon);
         v.setTag(info);
         v.setSize(mIconSize, mPadding);
         addView(v);
@@ -271,16 +296,45 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
         v.setOnTouchListener(this);
 
         mDragController.addDropTarget(v);
+        loadIconVariant(v);
+    }
+
+    /**
+     * Asks IconCache for the app icon of view at the size of the bubbles, so
+     * that the bubble does not scale it each time it is drawn. Built-in icons
+     * are loaded at that size already. The copy is kept in memory by the icon
+     * handle of the bubble, which pins the app icon.
+     */
+    private void loadIconVariant(final BubbleView view) {
+        final ShortcutInfo info = (ShortcutInfo) view.getTag();
+        if (info.mIconId != -1 || info.intent == null
+                || info.intent.getComponent() == null || mIconSize <= 0) {
+            return;
+        }
+        final ComponentName cn = info.intent.getComponent();
+        final int size = mIconSize;
+        Bitmap b = mIconCache.getIcon(cn, size, new IconCache.IconCallback() {
+            @Override
+            public void onIconReady(Bitmap icon) {
+                // The bubble may show something else by now.
+                if (mBubbleViews.contains(view) && view.getTag() == info && info.mIconId == -1
+                        && info.intent != null && cn.equals(info.intent.getComponent())
+                        && size == mIconSize) {
+                    view.changeBitmap(icon);
+                }
+            }
+        });
+        if (b != null) {
+            view.changeBitmap(b);
+        }
     }
 
     public void addBubbleViewFromBind(ShortcutInfo info) {
-        Bitmap b = info.mIcon;
-        if (b == null) {
-            b = getDefaultIcon();
-            info.mRecycle = false;
+        if (info.mIcon == null) {
+            info.mIcon = getDefaultIcon();
         }
 
-        addBubbleView(info, b);
+        addBubbleView(info, info.mIcon);
 
         int p = mBubbleViews.size() - 1;
         if (info.position != p) {
@@ -289,19 +343,18 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
     }
 
     public void addBubbleView(ShortcutInfo info) {
-        Bitmap b = info.mIcon;
         int position = mBubbleViews.size();
 
-        addBubbleView(info, b);
+        addBubbleView(info, info.mIcon);
         mSelect = mBubbleViews.get(position);
 
         LauncherModel.addItemToDatabase(mLauncher, info);
     }
 
-    private Bitmap getDefaultIcon() {
+    private IconHandle getDefaultIcon() {
         if (mDefaultIcon == null) {
-            mDefaultIcon = BitmapUtils.getIcon(Resources.getSystem(),
-                    android.R.mipmap.sym_def_app_icon, mIconSize);
+            mDefaultIcon = mIconCache.wrapIcon(BitmapUtils.getIcon(Resources.getSystem(),
+                    android.R.mipmap.sym_def_app_icon, mIconSize));
         }
         return mDefaultIcon;
     }
@@ -312,50 +365,37 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
         if (i.mIconId == iconId) { // same icon
             return;
         }
-        if (i.mRecycle) {
-            mSelect.clearBitmap();
-        }
-
-        Bitmap b = BitmapUtils.getIcon(mLauncher.getResources(), iconId, mIconSize);
-        i.mRecycle = true;
+        IconHandle icon = mIconCache.getBuiltinIcon(iconId, mIconSize);
         i.mIconId = iconId;
-        i.mIcon = null;
-        if (b == null) {
-            b = getDefaultIcon();
-            i.mRecycle = false;
+        if (icon == null) {
+            icon = getDefaultIcon();
             i.mIconId = -1;
         }
+        i.mIcon = icon;
 
-        mSelect.changeBitmap(b);
+        // The old icon is released, a built-in one goes back to the pool.
+        mSelect.setIcon(icon);
 
         LauncherModel.updateItemInDatabase(mLauncher, i);
     }
 
     public void changeBubbleView(ShortcutInfo info) {
         ShortcutInfo i = (ShortcutInfo) mSelect.getTag();
-        if (i.mRecycle) {
-            mSelect.clearBitmap();
-            i.mRecycle = false;
-        }
         i.intent = info.intent;
         i.mIcon = info.mIcon;
         i.mIconId = -1;
 
-        mSelect.changeBitmap(info.mIcon);
+        mSelect.setIcon(i.mIcon);
+        loadIconVariant(mSelect);
 
         LauncherModel.updateItemInDatabase(mLauncher, i);
     }
 
     public void removeBubbleView(BubbleView view) {
-        ShortcutInfo i = (ShortcutInfo) view.getTag();
         mBubbleViews.remove(view);
         removeView(view);
         mDragController.removeDropTarget(view);
-
-        if (i.mRecycle) {
-            view.clearBitmap();
-            i.mRecycle = false;
-        }
+        view.releaseIcon();
     }
 
     public void removeBubbleView() {
@@ -407,6 +447,7 @@ public class SpeedDial extends FrameLayout implements DragSource, View.OnTouchLi
         // do not forget to change size of bubble views existed.
         for (BubbleView v : mBubbleViews) {
             v.setSize(mIconSize, mPadding);
+            loadIconVariant(v);
         }
 
         update();
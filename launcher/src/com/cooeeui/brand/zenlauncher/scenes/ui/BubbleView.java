@@ -17,10 +17,15 @@ import android.os.Message;
 import android.view.View;
 
 import com.cooeeui.brand.zenlauncher.Launcher;
+import com.cooeeui.brand.zenlauncher.apps.IconHandle;
 import com.cooeeui.brand.zenlauncher.scenes.utils.DropTarget;
 
 public class BubbleView extends View implements DropTarget {
 
+    // The icon shown, acquired while it is set. null for a view made of a
+    // bitmap only.
+    private IconHandle mIcon;
+    // What is drawn: the bitmap of mIcon, or a copy of it at mSize.
     private Bitmap mBitmap;
 
     private Paint mPaint;
@@ -48,8 +53,10 @@ public class BubbleView extends View implements DropTarget {
     private AnimatorSet mAnimatorSet;
     private int mWhat;
 
-    public BubbleView(Context context, Bitmap bitmap) {
-        this(context, bitmap, bitmap.getWidth());
+    public BubbleView(Context context, IconHandle icon) {
+        this(context, icon.acquire().getBitmap(),
+                icon.getBitmap() != null ? icon.getBitmap().getWidth() : 0);
+        mIcon = icon;
         mLauncher = (Launcher) context;
     }
 
@@ -132,6 +139,11 @@ public class BubbleView extends View implements DropTarget {
     @Override
     protected void onDraw(Canvas canvas) {
         if (mBitmap != null && !mBitmap.isRecycled()) {
+            if (mBitmap.getWidth() == mSize && mBitmap.getHeight() == mSize) {
+                // Already at our size, no scaling or filtering.
+                canvas.drawBitmap(mBitmap, 0, 0, null);
+                return;
+            }
             float scale = (float) mSize / (float) mBitmap.getWidth();
             mMatrix.setScale(scale, scale);
             canvas.drawBitmap(mBitmap, mMatrix, mPaint);
@@ -201,16 +213,41 @@ public class BubbleView extends View implements DropTarget {
         }
     }
 
+    /**
+     * Draws bitmap, a copy of the icon at another size, instead of the icon.
+     */
     public void changeBitmap(Bitmap bitmap) {
         mBitmap = bitmap;
         invalidate();
     }
 
-    public void clearBitmap() {
-        if (mBitmap != null) {
-            if (!mBitmap.isRecycled())
-                mBitmap.recycle();
-            mBitmap = null;
+    /**
+     * Shows icon, which is acquired until another one is set or the view
+     * releases it.
+     */
+    public void setIcon(IconHandle icon) {
+        if (icon != null) {
+            icon.acquire();
+        }
+        if (mIcon != null) {
+            mIcon.release();
+        }
+        mIcon = icon;
+        changeBitmap(icon != null ? icon.getBitmap() : null);
+    }
+
+    public IconHandle getIcon() {
+        return mIcon;
+    }
+
+    /**
+     * Releases the icon, call when the view is not shown anymore.
+     */
+    public void releaseIcon() {
+        if (mIcon != null) {
+            mIcon.release();
+            mIcon = null;
         }
+        mBitmap = null;
     }
 }
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 
 import android.app.Dialog;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,8 +17,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.cooeeui.brand.zenlauncher.Launcher;
+import com.cooeeui.brand.zenlauncher.LauncherAppState;
 import com.cooeeui.brand.zenlauncher.R;
 import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.IconCache;
 
 public class PopupDialog extends Dialog {
 
@@ -28,6 +31,7 @@ public class PopupDialog extends Dialog {
     private Context mContext;
     private Launcher mLauncher;
     private ArrayList<AppInfo> mApps;
+    private IconCache mIconCache;
 
     private int mSelect = -1;
 
@@ -37,6 +41,7 @@ public class PopupDialog extends Dialog {
         mState = state;
         mLauncher = (Launcher) context;
         mApps = mLauncher.getApps();
+        mIconCache = LauncherAppState.getInstance().getIconCache();
     }
 
     @Override
@@ -56,11 +61,11 @@ public class PopupDialog extends Dialog {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 mSelect = position;
-                mImage.setImageBitmap(mApps.get(position).iconBitmap);
+                showIcon(mImage, mApps.get(position));
             }
         });
 
-        mImage.setImageBitmap(mApps.get(0).iconBitmap);
+        showIcon(mImage, mApps.get(0));
         if (mState == ADD_VIEW) {
             mText.setText("Add");
         } else {
@@ -73,11 +78,12 @@ public class PopupDialog extends Dialog {
             public void onClick(View v) {
                 if (mSelect != -1) {
                     if (mState == ADD_VIEW) {
-                        mLauncher.getSpeedDial().addBubbleView(mApps.get(mSelect).makeShortcut());
+                        mLauncher.getSpeedDial().addBubbleView(
+                                mApps.get(mSelect).makeShortcut(mIconCache));
                         mLauncher.getSpeedDial().update();
                     } else {
                         mLauncher.getSpeedDial().changeBubbleView(
-                                mApps.get(mSelect).makeShortcut());
+                                mApps.get(mSelect).makeShortcut(mIconCache));
                     }
                 }
                 PopupDialog.this.dismiss();
@@ -86,6 +92,22 @@ public class PopupDialog extends Dialog {
 
     }
 
+    /**
+     * Shows the icon of app in view without making it on the main thread:
+     * view shows a placeholder until the icon is ready.
+     */
+    private void showIcon(final ImageView view, final AppInfo app) {
+        view.setTag(app);
+        view.setImageBitmap(mIconCache.getIcon(app, new IconCache.IconCallback() {
+            @Override
+            public void onIconReady(Bitmap icon) {
+                if (view.getTag() == app) {
+                    view.setImageBitmap(icon);
+                }
+            }
+        }));
+    }
+
     private class ImageAdapter extends BaseAdapter {
 
         public ImageAdapter() {
@@ -120,7 +142,7 @@ public class PopupDialog extends Dialog {
                 imageView = (ImageView) convertView;
             }
 
-            imageView.setImageBitmap(mApps.get(position).iconBitmap);
+            showIcon(imageView, mApps.get(position));
             return imageView;
         }
 
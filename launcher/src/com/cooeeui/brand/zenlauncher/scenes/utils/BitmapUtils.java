@@ -1,17 +1,39 @@
-
 package com.cooeeui.brand.zenlauncher.scenes.utils;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 
 import com.cooeeui.brand.zenlauncher.config.IconConfig;
 
+import android.annotation.TargetApi;
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
 
 public class BitmapUtils {
+    private static final String TAG = "BitmapUtils";
+
+    // Enough for the header of any image format BitmapFactory knows, when the
+    // stream has to be buffered to be reset.
+    private static final int MARK_LIMIT = 64 * 1024;
+
+    // Icons given back by releaseIcon(), by width, waiting to be decoded
+    // into again.
+    private static final int POOL_SIZE_PER_WIDTH = 4;
+    private static final SparseArray<ArrayList<Bitmap>> sPool =
+            new SparseArray<ArrayList<Bitmap>>();
+
+    // Statistics, see dumpState().
+    private static int sDecodeCount;
+    private static int sAllocationCount;
+    private static int sReuseCount;
+
     public static Bitmap getIcon(Resources resources, int iconId) {
         return getIcon(resources, iconId, IconConfig.getIconSize());
     }
@@ -46,6 +68,12 @@ public class BitmapUtils {
                 : initialSize / 8 * 8;
     }
 
+    /**
+     * Decodes the raw resource iconId to a length x length bitmap. The
+     * resource is opened once: the bounds are read, the stream is reset, and
+     * the decoder samples and scales straight to length. A bitmap given back
+     * with {@link #releaseIcon(Bitmap)} is decoded into when possible.
+     */
     public static Bitmap getIcon(Resources resources, int iconId, int length) {
         InputStream is = null;
 
@@ -54,31 +82,155 @@ public class BitmapUtils {
         } catch (NotFoundException e) {
             return null;
         }
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(is, null, options);
-        closeSilently(is);
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is, MARK_LIMIT);
+        }
 
         try {
-            is = resources.openRawResource(iconId);
-        } catch (NotFoundException e) {
+            is.mark(MARK_LIMIT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(is, null, options);
+            is.reset();
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inSampleSize = computeSampleSizeLarger(
+                    options.outWidth, options.outHeight, length);
+            // Let the decoder scale what is left to length.
+            options.inScaled = true;
+            options.inDensity = options.outWidth / options.inSampleSize;
+            options.inTargetDensity = length;
+            options.inMutable = true;
+            options.inJustDecodeBounds = false;
+
+            Bitmap result = decode(is, options, length);
+            if (result == null) {
+                return null;
+            }
+            // Same density as an icon decoded without scaling.
+            result.setDensity(resources.getDisplayMetrics().densityDpi);
+            if (result.getWidth() != length || result.getHeight() != length) {
+                // Not square, or rounded differently.
+                result = resizeBitmap(result, length, true);
+            }
+            return result;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not decode icon " + iconId, e);
             return null;
+        } finally {
+            closeSilently(is);
         }
+    }
 
-        options.inSampleSize = computeSampleSizeLarger(
-                options.outWidth, options.outHeight, length);
-        options.inJustDecodeBounds = false;
-        Bitmap result = BitmapFactory.decodeStream(is, null, options);
-        closeSilently(is);
-
+    private static Bitmap decode(InputStream is, BitmapFactory.Options options, int length)
+            throws IOException {
+        // Before KitKat the decoder can only reuse a bitmap if it does not
+        // have to scale.
+        final Bitmap reuse = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? takeFromPool(length) : null;
+        Bitmap result = null;
+        if (reuse != null) {
+            is.mark(Integer.MAX_VALUE);
+            setInBitmap(options, reuse);
+            try {
+                result = BitmapFactory.decodeStream(is, null, options);
+            } catch (IllegalArgumentException e) {
+                // Not compatible after all.
+                result = null;
+            }
+            setInBitmap(options, null);
+            if (result == null) {
+                reuse.recycle();
+                is.reset();
+            }
+        }
         if (result == null) {
-            return null;
+            result = BitmapFactory.decodeStream(is, null, options);
         }
 
-        if (result.getWidth() != length) {
-            result = resizeBitmap(result, length, true);
+        synchronized (sPool) {
+            sDecodeCount++;
+            if (result == reuse && result != null) {
+                sReuseCount++;
+            } else {
+                sAllocationCount++;
+            }
         }
-
         return result;
     }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+        options.inBitmap = bitmap;
+    }
+
+    static Bitmap takeFromPool(int width) {
+        synchronized (sPool) {
+            final ArrayList<Bitmap> bitmaps = sPool.get(width);
+            if (bitmaps == null || bitmaps.isEmpty()) {
+                return null;
+            }
+            return bitmaps.remove(bitmaps.size() - 1);
+        }
+    }
+
+    /**
+     * Gives back an icon made by {@link #getIcon(Resources, int, int)} or by
+     * {@link BuiltinIconStore} that is no longer drawn, so that the next icon
+     * at that size can reuse it.
+     * It is recycled if the pool is full. The caller must not use it anymore.
+     */
+    public static void releaseIcon(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (bitmap.isMutable()) {
+            synchronized (sPool) {
+                ArrayList<Bitmap> bitmaps = sPool.get(bitmap.getWidth());
+                if (bitmaps == null) {
+                    bitmaps = new ArrayList<Bitmap>(POOL_SIZE_PER_WIDTH);
+                    sPool.put(bitmap.getWidth(), bitmaps);
+                }
+                if (bitmaps.size() < POOL_SIZE_PER_WIDTH) {
+                    bitmaps.add(bitmap);
+                    return;
+                }
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /** Number of icons decoded by getIcon. */
+    public static int getDecodeCount() {
+        synchronized (sPool) {
+            return sDecodeCount;
+        }
+    }
+
+    /** Number of icons decoded into a new bitmap. */
+    public static int getAllocationCount() {
+        synchronized (sPool) {
+            return sAllocationCount;
+        }
+    }
+
+    /** Number of icons decoded into a bitmap from the pool. */
+    public static int getReuseCount() {
+        synchronized (sPool) {
+            return sReuseCount;
+        }
+    }
+
+    public static void dumpState() {
+        synchronized (sPool) {
+            int pooled = 0;
+            for (int i = 0; i < sPool.size(); i++) {
+                pooled += sPool.valueAt(i).size();
+            }
+            Log.d(TAG, "decodes=" + sDecodeCount + " allocations=" + sAllocationCount
+                    + " reuses=" + sReuseCount + " pooled=" + pooled);
+        }
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.scenes.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.cooeeui.brand.zenlauncher.apps.Utilities;
+
+/**
+ * The built-in icons of {@link IconNameOrId}, rasterized once per density and
+ * icon size and kept as raw ARGB_8888 pixels in the cache directory. A stored
+ * icon is memory-mapped and copied into a bitmap as is, so the workspace can
+ * bind the built-in favorites without decoding or scaling a PNG.
+ * <p>
+ * A file is only used while the lastUpdateTime of the launcher, the density
+ * and the size are the ones it was written with. When there is no file the
+ * icon is decoded with {@link BitmapUtils#getIcon(Resources, int, int)} and
+ * the file is written in the background.
+ */
+public class BuiltinIconStore {
+    private static final String TAG = "BuiltinIconStore";
+    private static final boolean DEBUG = false;
+
+    private static final String DIR_NAME = "builtin_icons";
+    private static final int MAGIC = 0x5a4c4249;
+    private static final int VERSION = 1;
+    // magic, version, lastUpdateTime, dpi, width, height, rowBytes
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private static Handler sWriter;
+    private static final Object sWriteLock = new Object();
+    private static long sLastUpdateTime = -1;
+
+    // Statistics, see dumpState().
+    private static int sMappedCount;
+    private static int sDecodedCount;
+    private static int sWrittenCount;
+
+    private BuiltinIconStore() {
+    }
+
+    /**
+     * Returns the built-in icon iconId as a length x length bitmap, read from
+     * its stored pixels if there are any. The bitmap can be given back with
+     * {@link BitmapUtils#releaseIcon(Bitmap)}.
+     */
+    public static Bitmap getIcon(Context context, final int iconId, final int length) {
+        final Resources res = context.getResources();
+        final File file = getFile(context, iconId, length);
+        if (file != null) {
+            final Bitmap icon = map(file, getLastUpdateTime(context),
+                    res.getDisplayMetrics().densityDpi, length);
+            if (icon != null) {
+                synchronized (BuiltinIconStore.class) {
+                    sMappedCount++;
+                }
+                return icon;
+            }
+        }
+
+        final Bitmap icon = BitmapUtils.getIcon(res, iconId, length);
+        synchronized (BuiltinIconStore.class) {
+            sDecodedCount++;
+        }
+        if (icon != null && file != null) {
+            // Decode another copy for the file, the caller may release this
+            // one before the writer gets to it.
+            final Context appContext = context.getApplicationContext();
+            getWriter().post(new Runnable() {
+                public void run() {
+                    write(appContext, iconId, length);
+                }
+            });
+        }
+        return icon;
+    }
+
+    /**
+     * Rasterizes every built-in icon at length that has not been stored yet.
+     * Does disk I/O, call it off the main thread.
+     */
+    public static void prepare(Context context, int length) {
+        for (int iconId : IconNameOrId.getBuiltinIconIds()) {
+            final File file = getFile(context, iconId, length);
+            if (file != null && !file.exists()) {
+                write(context, iconId, length);
+            }
+        }
+    }
+
+    private static void write(Context context, int iconId, int length) {
+        synchronized (sWriteLock) {
+            writeLocked(context, iconId, length);
+        }
+    }
+
+    private static void writeLocked(Context context, int iconId, int length) {
+        final File file = getFile(context, iconId, length);
+        if (file == null || file.exists()) {
+            return;
+        }
+        final Resources res = context.getResources();
+        final Bitmap icon = BitmapUtils.getIcon(res, iconId, length);
+        if (icon == null) {
+            return;
+        }
+        if (icon.getConfig() != Bitmap.Config.ARGB_8888) {
+            BitmapUtils.releaseIcon(icon);
+            return;
+        }
+
+        final ByteBuffer pixels = ByteBuffer.allocate(icon.getRowBytes() * icon.getHeight());
+        icon.copyPixelsToBuffer(pixels);
+        final long lastUpdateTime = getLastUpdateTime(context);
+        final int dpi = res.getDisplayMetrics().densityDpi;
+        try {
+            Utilities.writeFileAtomically(file, new Utilities.FileContents() {
+                public void writeTo(DataOutputStream out) throws IOException {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(lastUpdateTime);
+                    out.writeInt(dpi);
+                    out.writeInt(icon.getWidth());
+                    out.writeInt(icon.getHeight());
+                    out.writeInt(icon.getRowBytes());
+                    out.write(pixels.array());
+                }
+            });
+            deleteOthers(file, IconNameOrId.getIconName(iconId));
+            synchronized (BuiltinIconStore.class) {
+                sWrittenCount++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+        } finally {
+            BitmapUtils.releaseIcon(icon);
+        }
+    }
+
+    private static Bitmap map(File file, long lastUpdateTime, int dpi, int length) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.remaining() < HEADER_SIZE
+                    || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != lastUpdateTime || buffer.getInt() != dpi) {
+                if (DEBUG) {
+                    Log.d(TAG, "stale " + file);
+                }
+                file.delete();
+                return null;
+            }
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            final int rowBytes = buffer.getInt();
+            if (width != length || height != length || buffer.remaining() < rowBytes * height) {
+                file.delete();
+                return null;
+            }
+
+            Bitmap icon = BitmapUtils.takeFromPool(length);
+            if (icon != null && (icon.getHeight() != length
+                    || icon.getConfig() != Bitmap.Config.ARGB_8888
+                    || icon.getRowBytes() != rowBytes)) {
+                icon.recycle();
+                icon = null;
+            }
+            if (icon == null) {
+                icon = Bitmap.createBitmap(length, length, Bitmap.Config.ARGB_8888);
+                if (icon.getRowBytes() != rowBytes) {
+                    icon.recycle();
+                    return null;
+                }
+            }
+            icon.copyPixelsFromBuffer(buffer);
+            icon.setDensity(dpi);
+            return icon;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map " + file, e);
+            return null;
+        } finally {
+            Utilities.closeSilently(raf);
+        }
+    }
+
+    private static File getFile(Context context, int iconId, int length) {
+        final File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        final int dpi = context.getResources().getDisplayMetrics().densityDpi;
+        return new File(dir, IconNameOrId.getIconName(iconId) + "_" + dpi + "_" + length);
+    }
+
+    // The icons of another density or size are not used anymore.
+    private static void deleteOthers(File file, String iconName) {
+        final File[] files = file.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        final String prefix = iconName + "_";
+        final String keep = file.getName();
+        for (File f : files) {
+            final String name = f.getName();
+            if (name.startsWith(prefix) && !name.equals(keep) && !name.endsWith(".tmp")) {
+                f.delete();
+            }
+        }
+    }
+
+    // The launcher is restarted when it is updated, so it is only asked once.
+    private static synchronized long getLastUpdateTime(Context context) {
+        if (sLastUpdateTime < 0) {
+            try {
+                sLastUpdateTime = context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (NameNotFoundException e) {
+                sLastUpdateTime = 0;
+            }
+        }
+        return sLastUpdateTime;
+    }
+
+    private static synchronized Handler getWriter() {
+        if (sWriter == null) {
+            final HandlerThread thread = new HandlerThread("launcher-builtin-icons",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWriter = new Handler(thread.getLooper());
+        }
+        return sWriter;
+    }
+
+    public static synchronized void dumpState() {
+        Log.d(TAG, "mapped=" + sMappedCount + " decoded=" + sDecodedCount
+                + " written=" + sWrittenCount);
+    }
+}
@@ -12,6 +12,10 @@ public class IconNameOrId {
     public static final String ICON_NAME_SMS = "sms";
     public static final String ICON_NAME_BROWSER = "browser";
 
+    private static final int[] BUILTIN_ICON_IDS = new int[] {
+            R.raw.camera, R.raw.contacts, R.raw.setting, R.raw.dial, R.raw.sms, R.raw.browser
+    };
+
     public static int getIconId(String name) {
         if (ICON_NAME_PACKAGE.equalsIgnoreCase(name)) {
             return -1;
@@ -38,6 +42,13 @@ public class IconNameOrId {
         return -1;
     }
 
+    /**
+     * Returns the ids of all the built-in icons.
+     */
+    public static int[] getBuiltinIconIds() {
+        return BUILTIN_ICON_IDS.clone();
+    }
+
     public static String getIconName(int iconId) {
         String name = ICON_NAME_PACKAGE;
         switch (iconId) {
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.cooeeui.brand.zenlauncher.apps.AppInfo;
+import com.cooeeui.brand.zenlauncher.apps.IconCache;
+
+/**
+ * Tests {@link LauncherModel#diffSnapshotApps}, which decides what a load
+ * behind a bound snapshot sends to the launcher. The apps are the launcher
+ * activities installed on the device, loaded the way the loader does.
+ */
+public class SnapshotDiffTest extends AndroidTestCase {
+    private static final int MAX_APPS = 20;
+
+    private PackageManager mPackageManager;
+    private IconCache mIconCache;
+    private List<ResolveInfo> mActivities;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPackageManager = getContext().getPackageManager();
+        mIconCache = new IconCache(getContext());
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> activities = mPackageManager.queryIntentActivities(mainIntent, 0);
+        mActivities = activities.subList(0, Math.min(MAX_APPS, activities.size()));
+        assertTrue("fewer than 3 launcher activities installed", mActivities.size() >= 3);
+    }
+
+    // Loads the apps as reconcileSnapshot does: they do not hold their icons.
+    private AppInfo[] load() {
+        final AppInfo[] apps = new AppInfo[mActivities.size()];
+        for (int i = 0; i < apps.length; i++) {
+            apps[i] = new AppInfo(mPackageManager, mActivities.get(i), mIconCache, null);
+            assertNull(apps[i].iconBitmap);
+        }
+        return apps;
+    }
+
+    // Makes the bound snapshot of apps as bindSnapshot does: each app gets a
+    // copy of its icon, as read from the icons stored on disk.
+    private HashMap<ComponentName, AppInfo> snapshot(AppInfo[] apps) {
+        final HashMap<ComponentName, AppInfo> bound = new HashMap<ComponentName, AppInfo>();
+        for (AppInfo app : apps) {
+            final AppInfo info = new AppInfo(app.componentName, app.title.toString(),
+                    app.flags, app.firstInstallTime);
+            info.iconBitmap = mIconCache.getIcon(app).copy(Bitmap.Config.ARGB_8888, false);
+            bound.put(info.componentName, info);
+        }
+        return bound;
+    }
+
+    public void testUnchangedSnapshotHasNoDelta() {
+        final HashMap<ComponentName, AppInfo> bound = snapshot(load());
+        final ArrayList<AppInfo> newApps = new ArrayList<AppInfo>();
+        final IdentityHashMap<AppInfo, AppInfo> replacements =
+                new IdentityHashMap<AppInfo, AppInfo>();
+
+        LauncherModel.diffSnapshotApps(bound, load(), mIconCache, newApps, replacements);
+
+        assertTrue(newApps.isEmpty());
+        assertTrue(replacements.isEmpty());
+        assertTrue(bound.isEmpty());
+    }
+
+    public void testChangedAppsAreReplaced() {
+        final AppInfo[] loaded = load();
+        final HashMap<ComponentName, AppInfo> bound = snapshot(loaded);
+        final AppInfo renamed = bound.get(loaded[0].componentName);
+        renamed.title = "Renamed";
+        final AppInfo redrawn = bound.get(loaded[1].componentName);
+        redrawn.iconBitmap = Bitmap.createBitmap(redrawn.iconBitmap.getWidth(),
+                redrawn.iconBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        final AppInfo added = bound.remove(loaded[2].componentName);
+        final AppInfo gone = new AppInfo(new ComponentName("com.example.gone", "Activity"),
+                "Gone", 0, 0);
+        bound.put(gone.componentName, gone);
+
+        final ArrayList<AppInfo> newApps = new ArrayList<AppInfo>();
+        final IdentityHashMap<AppInfo, AppInfo> replacements =
+                new IdentityHashMap<AppInfo, AppInfo>();
+        LauncherModel.diffSnapshotApps(bound, loaded, mIconCache, newApps, replacements);
+
+        assertEquals(1, newApps.size());
+        assertEquals(added.componentName, newApps.get(0).componentName);
+        assertEquals(2, replacements.size());
+        assertSame(loaded[0], replacements.get(renamed));
+        assertSame(loaded[1], replacements.get(redrawn));
+        assertEquals(1, bound.size());
+        assertSame(gone, bound.get(gone.componentName));
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import android.content.ComponentName;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ResolveInfo;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests the indexes of {@link AllAppsList} with as many apps as a crowded
+ * device has: 2,000 activities in 200 packages, and that its operations do
+ * not get slower as the list grows.
+ */
+public class AllAppsListTest extends AndroidTestCase {
+    private static final String TAG = "AllAppsListTest";
+
+    private static final int PACKAGES = 200;
+    private static final int ACTIVITIES_PER_PACKAGE = 10;
+    private static final int APPS = PACKAGES * ACTIVITIES_PER_PACKAGE;
+
+    // For testOperationCostDoesNotGrow().
+    private static final int SMALL_PACKAGES = PACKAGES / 10;
+    private static final String[] OPERATIONS = new String[] {
+            "find", "replace", "add", "remove in bulk"
+    };
+    private static final int COST_OPS = 500;
+    private static final int RUNS = 5;
+    private static final int TOLERANCE = 3;
+    // Below this, in ns, a cost is timer noise.
+    private static final long MIN_COST = 200;
+
+    private AllAppsList mList;
+    private ArrayList<AppInfo> mApps;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mList = new AllAppsList(new IconCache(getContext()), null, null);
+        mApps = new ArrayList<AppInfo>(APPS);
+        // Interleave the packages, so that the apps of one package are spread
+        // over the whole list, as they are once sorted by title.
+        for (int a = 0; a < ACTIVITIES_PER_PACKAGE; a++) {
+            for (int p = 0; p < PACKAGES; p++) {
+                mApps.add(makeApp(p, a));
+            }
+        }
+        final long t = SystemClock.uptimeMillis();
+        for (AppInfo info : mApps) {
+            mList.add(info);
+        }
+        Log.d(TAG, "added " + APPS + " apps in " + (SystemClock.uptimeMillis() - t) + "ms");
+    }
+
+    private static String packageName(int p) {
+        return "com.example.app" + p;
+    }
+
+    private static AppInfo makeApp(int p, int a) {
+        final ComponentName cn = new ComponentName(packageName(p),
+                packageName(p) + ".Activity" + a);
+        return new AppInfo(cn, "App " + p + "." + a, 0, 0);
+    }
+
+    public void testAddIndexesEveryApp() {
+        assertEquals(APPS, mList.size());
+        assertEquals(APPS, mList.added.size());
+        for (int i = 0; i < APPS; i++) {
+            final AppInfo info = mApps.get(i);
+            assertSame(info, mList.get(i));
+            assertSame(info, mList.find(new ComponentName(
+                    info.componentName.getPackageName(), info.componentName.getClassName())));
+        }
+        assertNull(mList.find(new ComponentName("com.example.missing", "Activity")));
+    }
+
+    public void testAddSkipsKnownComponent() {
+        final AppInfo duplicate = makeApp(7, 3);
+        mList.add(duplicate);
+        assertEquals(APPS, mList.size());
+        assertNotSame(duplicate, mList.find(duplicate.componentName));
+    }
+
+    public void testRemove() {
+        final AppInfo info = mApps.get(APPS / 2);
+        mList.remove(info);
+        assertEquals(APPS - 1, mList.size());
+        assertNull(mList.find(info.componentName));
+        assertEquals(1, mList.removed.size());
+        assertSame(info, mList.removed.get(0));
+
+        // An app of the same component that is not in the list is ignored.
+        mList.remove(makeApp(0, 0));
+        assertEquals(APPS - 1, mList.size());
+        assertNotNull(mList.find(mApps.get(0).componentName));
+    }
+
+    public void testRemovePackageKeepsOrder() {
+        final HashSet<String> gone = new HashSet<String>();
+        final long t = SystemClock.uptimeMillis();
+        for (int p = 0; p < PACKAGES; p += 2) {
+            mList.removePackage(packageName(p));
+            gone.add(packageName(p));
+        }
+        Log.d(TAG, "removed " + gone.size() + " packages in "
+                + (SystemClock.uptimeMillis() - t) + "ms");
+
+        final ArrayList<AppInfo> expected = new ArrayList<AppInfo>();
+        for (AppInfo info : mApps) {
+            if (!gone.contains(info.componentName.getPackageName())) {
+                expected.add(info);
+            }
+        }
+        assertEquals(expected, mList.data);
+        assertEquals(APPS - expected.size(), mList.removed.size());
+        for (AppInfo info : mList.removed) {
+            assertTrue(gone.contains(info.componentName.getPackageName()));
+            assertNull(mList.find(info.componentName));
+        }
+        for (AppInfo info : expected) {
+            assertSame(info, mList.find(info.componentName));
+        }
+
+        // Removing a package again, or one that is not there, does nothing.
+        final int removed = mList.removed.size();
+        mList.removePackage(packageName(0));
+        mList.removePackage("com.example.missing");
+        assertEquals(expected.size(), mList.size());
+        assertEquals(removed, mList.removed.size());
+    }
+
+    public void testReplaceAll() {
+        final IdentityHashMap<AppInfo, AppInfo> replacements =
+                new IdentityHashMap<AppInfo, AppInfo>();
+        for (int i = 0; i < APPS; i += 3) {
+            final AppInfo old = mApps.get(i);
+            old.category = i % 5;
+            old.priority = i;
+            old.hide = i % 2 == 0;
+            old.isOpened = true;
+            replacements.put(old, new AppInfo(old.componentName, "Renamed " + i, 0, 0));
+        }
+        mList.replaceAll(replacements);
+
+        assertEquals(APPS, mList.size());
+        for (int i = 0; i < APPS; i++) {
+            final AppInfo old = mApps.get(i);
+            final AppInfo info = mList.get(i);
+            final AppInfo replacement = replacements.get(old);
+            if (replacement == null) {
+                assertSame(old, info);
+                continue;
+            }
+            assertSame(replacement, info);
+            assertSame(info, mList.find(old.componentName));
+            assertEquals(old.category, info.category);
+            assertEquals(old.priority, info.priority);
+            assertEquals(old.hide, info.hide);
+            assertEquals(old.isOpened, info.isOpened);
+        }
+        assertTrue(mList.removed.isEmpty());
+        assertTrue(mList.modified.isEmpty());
+
+        // The package index follows the swap: the apps removed with package 0
+        // are the ones in the list now, new or kept.
+        mList.removePackage(packageName(0));
+        assertEquals(ACTIVITIES_PER_PACKAGE, mList.removed.size());
+        for (AppInfo info : mList.removed) {
+            final AppInfo old = findOld(info);
+            final AppInfo replacement = replacements.get(old);
+            assertSame(replacement != null ? replacement : old, info);
+        }
+        assertEquals(APPS - ACTIVITIES_PER_PACKAGE, mList.size());
+    }
+
+    public void testRemoveAll() {
+        final ArrayList<AppInfo> gone = new ArrayList<AppInfo>();
+        final ArrayList<AppInfo> expected = new ArrayList<AppInfo>();
+        for (int i = 0; i < APPS; i++) {
+            if (i % 7 == 0) {
+                gone.add(mApps.get(i));
+            } else {
+                expected.add(mApps.get(i));
+            }
+        }
+        // Apps that are not in the list are ignored.
+        gone.add(makeApp(0, 0));
+        mList.removeAll(gone);
+
+        assertEquals(expected, mList.data);
+        assertEquals(gone.size() - 1, mList.removed.size());
+        for (AppInfo info : expected) {
+            assertSame(info, mList.find(info.componentName));
+        }
+        // The indexes still match data after the compaction.
+        final AppInfo last = expected.get(expected.size() - 1);
+        mList.remove(last);
+        expected.remove(expected.size() - 1);
+        assertEquals(expected, mList.data);
+    }
+
+    public void testIndexesSurviveReorder() {
+        Collections.reverse(mList.data);
+        final AppInfo info = mApps.get(10);
+        final IdentityHashMap<AppInfo, AppInfo> replacements =
+                new IdentityHashMap<AppInfo, AppInfo>();
+        final AppInfo copy = new AppInfo(info);
+        replacements.put(info, copy);
+        mList.replaceAll(replacements);
+        assertSame(copy, mList.get(APPS - 1 - 10));
+
+        mList.remove(mApps.get(20));
+        assertEquals(APPS - 1, mList.size());
+        assertSame(copy, mList.get(APPS - 2 - 10));
+        assertNull(mList.find(mApps.get(20).componentName));
+    }
+
+    public void testUpdatePackageReplacesBoundApps() {
+        final int p = 3;
+        final ArrayList<AppInfo> bound = new ArrayList<AppInfo>();
+        final ArrayList<ResolveInfo> matches = new ArrayList<ResolveInfo>();
+        for (int a = 0; a < ACTIVITIES_PER_PACKAGE; a++) {
+            final AppInfo info = mList.find(makeApp(p, a).componentName);
+            info.category = 5;
+            bound.add(info);
+            // The last activity is gone from the package.
+            if (a < ACTIVITIES_PER_PACKAGE - 1) {
+                matches.add(makeResolveInfo(p, a, "New " + a));
+            }
+        }
+        final ArrayList<CharSequence> titles = new ArrayList<CharSequence>();
+        for (AppInfo info : bound) {
+            titles.add(info.title);
+        }
+
+        mList.updatePackage(getContext(), packageName(p), matches);
+
+        // The bound apps are not changed, copies take their place.
+        for (int a = 0; a < ACTIVITIES_PER_PACKAGE; a++) {
+            assertSame(titles.get(a), bound.get(a).title);
+        }
+        assertEquals(ACTIVITIES_PER_PACKAGE - 1, mList.modified.size());
+        assertEquals(mList.modified.size(), mList.replaced.size());
+        for (int a = 0; a < ACTIVITIES_PER_PACKAGE - 1; a++) {
+            final AppInfo copy = mList.modified.get(a);
+            assertSame(bound.get(a), mList.replaced.get(a));
+            assertNotSame(bound.get(a), copy);
+            assertEquals("New " + a, copy.title.toString());
+            assertEquals(5, copy.category);
+            assertSame(copy, mList.find(copy.componentName));
+            assertSame(copy, mList.get(mApps.indexOf(bound.get(a))));
+        }
+        assertEquals(1, mList.removed.size());
+        assertSame(bound.get(ACTIVITIES_PER_PACKAGE - 1), mList.removed.get(0));
+        assertEquals(APPS - 1, mList.size());
+
+        // A second update replaces the copies, which were never bound.
+        mList.updatePackage(getContext(), packageName(p), matches);
+        assertEquals(ACTIVITIES_PER_PACKAGE - 1, mList.modified.size());
+        for (int a = 0; a < ACTIVITIES_PER_PACKAGE - 1; a++) {
+            assertSame(bound.get(a), mList.replaced.get(a));
+            assertSame(mList.modified.get(a), mList.find(bound.get(a).componentName));
+        }
+    }
+
+    private static ResolveInfo makeResolveInfo(int p, int a, String label) {
+        final ResolveInfo info = new ResolveInfo();
+        info.activityInfo = new ActivityInfo();
+        info.activityInfo.applicationInfo = new ApplicationInfo();
+        info.activityInfo.applicationInfo.packageName = packageName(p);
+        info.activityInfo.packageName = packageName(p);
+        info.activityInfo.name = packageName(p) + ".Activity" + a;
+        info.nonLocalizedLabel = label;
+        return info;
+    }
+
+    /**
+     * Checks that adding, finding, replacing and removing in bulk cost about
+     * the same per app with 200 and with 2,000 apps. A scan of the list on
+     * each of them would make them ten times slower.
+     */
+    public void testOperationCostDoesNotGrow() {
+        // Once to let the code get compiled.
+        measure(SMALL_PACKAGES);
+        final long[] small = measure(SMALL_PACKAGES);
+        final long[] large = measure(PACKAGES);
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            final String report = OPERATIONS[op] + ": " + small[op] + "ns per app with "
+                    + SMALL_PACKAGES * ACTIVITIES_PER_PACKAGE + " apps, " + large[op]
+                    + "ns with " + APPS;
+            Log.d(TAG, report);
+            assertTrue(report, large[op] <= TOLERANCE * Math.max(small[op], MIN_COST));
+        }
+    }
+
+    /**
+     * Returns the cost in ns per app of each of OPERATIONS on a list of the
+     * apps of packages, the lowest of several runs.
+     */
+    private long[] measure(int packages) {
+        final long[] best = new long[OPERATIONS.length];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int run = 0; run < RUNS; run++) {
+            final AllAppsList list = new AllAppsList(new IconCache(getContext()), null, null);
+            final ArrayList<AppInfo> apps = new ArrayList<AppInfo>();
+            for (int a = 0; a < ACTIVITIES_PER_PACKAGE; a++) {
+                for (int p = 0; p < packages; p++) {
+                    apps.add(makeApp(p, a));
+                }
+            }
+            for (AppInfo info : apps) {
+                list.add(info);
+            }
+
+            final ArrayList<AppInfo> newApps = new ArrayList<AppInfo>(COST_OPS);
+            final ArrayList<ComponentName> components = new ArrayList<ComponentName>(COST_OPS);
+            final ArrayList<IdentityHashMap<AppInfo, AppInfo>> replacements =
+                    new ArrayList<IdentityHashMap<AppInfo, AppInfo>>(COST_OPS);
+            for (int i = 0; i < COST_OPS; i++) {
+                newApps.add(makeApp(packages + i, 0));
+                final AppInfo info = apps.get((i * 7919) % apps.size());
+                components.add(new ComponentName(info.componentName.getPackageName(),
+                        info.componentName.getClassName()));
+                final IdentityHashMap<AppInfo, AppInfo> replacement =
+                        new IdentityHashMap<AppInfo, AppInfo>();
+                replacement.put(info, new AppInfo(info));
+                replacements.add(replacement);
+            }
+            final ArrayList<AppInfo> gone = new ArrayList<AppInfo>();
+            for (int i = 0; i < apps.size(); i += 10) {
+                gone.add(apps.get(i));
+            }
+
+            long t = System.nanoTime();
+            for (ComponentName cn : components) {
+                assertNotNull(list.find(cn));
+            }
+            best[0] = Math.min(best[0], (System.nanoTime() - t) / COST_OPS);
+
+            // Distinct apps, so that each one is still in the list.
+            final HashSet<AppInfo> seen = new HashSet<AppInfo>();
+            int replaced = 0;
+            t = System.nanoTime();
+            for (IdentityHashMap<AppInfo, AppInfo> replacement : replacements) {
+                if (seen.addAll(replacement.keySet())) {
+                    list.replaceAll(replacement);
+                    replaced++;
+                }
+            }
+            best[1] = Math.min(best[1], (System.nanoTime() - t) / replaced);
+
+            t = System.nanoTime();
+            for (AppInfo info : newApps) {
+                list.add(info);
+            }
+            best[2] = Math.min(best[2], (System.nanoTime() - t) / COST_OPS);
+
+            t = System.nanoTime();
+            list.removeAll(gone);
+            best[3] = Math.min(best[3], (System.nanoTime() - t) / gone.size());
+        }
+        return best;
+    }
+
+    private AppInfo findOld(AppInfo info) {
+        for (AppInfo old : mApps) {
+            if (old.componentName.equals(info.componentName)) {
+                return old;
+            }
+        }
+        return null;
+    }
+}
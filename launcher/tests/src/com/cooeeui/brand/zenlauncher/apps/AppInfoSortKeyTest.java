@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+import android.content.ComponentName;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.cooeeui.brand.zenlauncher.LauncherModel;
+
+/**
+ * Tests the sort keys cached on {@link AppInfo} on 1,000 titles in Latin,
+ * CJK and mixed scripts, and measures sorting by them against comparing the
+ * titles with a Collator each time.
+ */
+public class AppInfoSortKeyTest extends AndroidTestCase {
+    private static final String TAG = "AppInfoSortKeyTest";
+
+    private static final int APPS = 1000;
+    private static final int ROUNDS = 5;
+
+    private static final Locale[] LOCALES = new Locale[] {
+            Locale.US, Locale.FRANCE, Locale.CHINA, Locale.TAIWAN, Locale.JAPAN, Locale.KOREA
+    };
+
+    // Words of app titles: Latin with case and accents, Chinese, Japanese
+    // kana and kanji, Hangul, and titles that mix scripts.
+    private static final String[] WORDS = new String[] {
+            "camera", "Calendar", "café", "Clock", " contacts", "Éditeur", "email", "Maps",
+            "music", "Músic", "zen", "Zoom",
+            "微信", "支付宝", "淘宝", "百度地图", "设置", "相机", "日历", "浏览器", "音乐",
+            "カメラ", "設定", "メッセージ", "ゲーム", "ひらがな",
+            "카카오톡", "설정", "네이버", "지도",
+            "QQ音乐", "WPS Office 文档", "LINE マンガ", "Google 翻訳", "T맵", "2048 游戏"
+    };
+
+    private ArrayList<AppInfo> mApps;
+    private Locale mDefaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+        // One or two words and a number, in a fixed random order.
+        final Random random = new Random(42);
+        mApps = new ArrayList<AppInfo>(APPS);
+        for (int i = 0; i < APPS; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)];
+            if (random.nextBoolean()) {
+                title += " " + WORDS[random.nextInt(WORDS.length)];
+            }
+            title += " " + random.nextInt(100);
+            final ComponentName cn = new ComponentName("com.example.app" + i, "Activity");
+            mApps.add(new AppInfo(cn, title, 0, 0));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mDefaultLocale);
+        super.tearDown();
+    }
+
+    // The order of the launcher before sort keys: the Collator compares the
+    // titles on each call.
+    private static Comparator<AppInfo> getCollatorComparator(Locale locale) {
+        final Collator collator = Collator.getInstance(locale);
+        return new Comparator<AppInfo>() {
+            public final int compare(AppInfo a, AppInfo b) {
+                int result = collator.compare(a.title.toString().trim(),
+                        b.title.toString().trim());
+                if (result == 0) {
+                    result = a.componentName.compareTo(b.componentName);
+                }
+                return result;
+            }
+        };
+    }
+
+    public void testOrderMatchesCollator() {
+        for (Locale locale : LOCALES) {
+            Locale.setDefault(locale);
+            final ArrayList<AppInfo> expected = new ArrayList<AppInfo>(mApps);
+            Collections.sort(expected, getCollatorComparator(locale));
+            final ArrayList<AppInfo> apps = new ArrayList<AppInfo>(mApps);
+            Collections.sort(apps, LauncherModel.getAppNameComparator());
+            for (int i = 0; i < APPS; i++) {
+                assertSame(locale + " at " + i + ": " + expected.get(i).title + " / "
+                        + apps.get(i).title, expected.get(i), apps.get(i));
+            }
+        }
+    }
+
+    public void testKeyIsCachedUntilTitleOrLocaleChanges() {
+        final Locale locale = Locale.US;
+        final Collator collator = Collator.getInstance(locale);
+        final AppInfo info = mApps.get(0);
+
+        final CollationKey key = info.getSortKey(collator, locale);
+        assertSame(key, info.getSortKey(collator, locale));
+
+        info.title = "微信 Renamed";
+        final CollationKey renamed = info.getSortKey(collator, locale);
+        assertNotSame(key, renamed);
+        assertEquals("微信 Renamed", renamed.getSourceString());
+
+        final Locale chinese = Locale.CHINA;
+        assertNotSame(renamed, info.getSortKey(Collator.getInstance(chinese), chinese));
+    }
+
+    /**
+     * Sorts the apps ROUNDS times both ways. The apps are sorted again with
+     * the same titles each time the all apps list changes, so after the
+     * first sort, which makes the keys, sorting by key must be faster.
+     */
+    public void testSortBenchmark() {
+        for (Locale locale : new Locale[] { Locale.US, Locale.CHINA }) {
+            Locale.setDefault(locale);
+            final Comparator<AppInfo> plain = getCollatorComparator(locale);
+
+            long plainTime = 0;
+            long firstKeyTime = 0;
+            long keyTime = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                ArrayList<AppInfo> apps = new ArrayList<AppInfo>(mApps);
+                long t = System.nanoTime();
+                Collections.sort(apps, plain);
+                plainTime += System.nanoTime() - t;
+                final ArrayList<AppInfo> expected = apps;
+
+                apps = new ArrayList<AppInfo>(mApps);
+                t = System.nanoTime();
+                Collections.sort(apps, LauncherModel.getAppNameComparator());
+                t = System.nanoTime() - t;
+                if (round == 0) {
+                    firstKeyTime = t;
+                } else {
+                    keyTime += t;
+                }
+                assertEquals(expected, apps);
+            }
+
+            final long plainAverage = plainTime / ROUNDS / 1000;
+            final long keyAverage = keyTime / (ROUNDS - 1) / 1000;
+            final String report = locale + ": sorted " + APPS + " apps in " + plainAverage
+                    + "us with the collator, " + keyAverage + "us by sort key ("
+                    + firstKeyTime / 1000 + "us making the keys)";
+            Log.d(TAG, report);
+            assertTrue(report, keyAverage < plainAverage);
+        }
+    }
+}
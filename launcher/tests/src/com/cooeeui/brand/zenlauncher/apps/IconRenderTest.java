@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.apps;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.PaintDrawable;
+import android.test.AndroidTestCase;
+
+import com.cooeeui.brand.zenlauncher.R;
+
+/**
+ * Tests that {@link Utilities#createIconBitmap(Drawable, Context)} and
+ * {@link Utilities#resampleIconBitmap(Bitmap, Context)}, which render on a
+ * canvas per thread, give the same pixels as the shared canvas they used
+ * under a lock, also when several threads render at once.
+ */
+public class IconRenderTest extends AndroidTestCase {
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 10;
+
+    private static final int[] ICONS = new int[] {
+            R.drawable.ic_launcher, R.drawable.app_hide, R.drawable.app_uninstall,
+            R.drawable.icon1, R.drawable.icon2, R.drawable.icon3, R.drawable.icon4,
+            R.drawable.icon5, R.drawable.icon6, R.drawable.icon7, R.drawable.icon8,
+            R.drawable.icon9
+    };
+
+    // The rendering as it was: one canvas for the process, under its lock.
+    private static final Canvas sCanvas = new Canvas();
+    private static final Rect sOldBounds = new Rect();
+
+    static {
+        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                Paint.FILTER_BITMAP_FLAG));
+    }
+
+    private static Bitmap createIconBitmapLocked(Drawable icon, Context context) {
+        synchronized (sCanvas) {
+            final int size = Utilities.getIconTextureSize(context);
+            int width = size;
+            int height = size;
+
+            if (icon instanceof PaintDrawable) {
+                PaintDrawable painter = (PaintDrawable) icon;
+                painter.setIntrinsicWidth(width);
+                painter.setIntrinsicHeight(height);
+            } else if (icon instanceof BitmapDrawable) {
+                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+                Bitmap bitmap = bitmapDrawable.getBitmap();
+                if (bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                    bitmapDrawable.setTargetDensity(context.getResources()
+                            .getDisplayMetrics());
+                }
+            }
+            int sourceWidth = icon.getIntrinsicWidth();
+            int sourceHeight = icon.getIntrinsicHeight();
+            if (sourceWidth > 0 && sourceHeight > 0) {
+                final float ratio = (float) sourceWidth / sourceHeight;
+                if (sourceWidth > sourceHeight) {
+                    height = (int) (width / ratio);
+                } else if (sourceHeight > sourceWidth) {
+                    width = (int) (height * ratio);
+                }
+            }
+
+            final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = sCanvas;
+            canvas.setBitmap(bitmap);
+
+            final int left = (size - width) / 2;
+            final int top = (size - height) / 2;
+
+            sOldBounds.set(icon.getBounds());
+            icon.setBounds(left, top, left + width, top + height);
+            icon.draw(canvas);
+            icon.setBounds(sOldBounds);
+            canvas.setBitmap(null);
+
+            return bitmap;
+        }
+    }
+
+    private static Bitmap resampleIconBitmapLocked(Bitmap bitmap, Context context) {
+        final int size = Utilities.getIconTextureSize(context);
+        if (bitmap.getWidth() == size && bitmap.getHeight() == size) {
+            return bitmap;
+        }
+        return createIconBitmapLocked(new BitmapDrawable(context.getResources(), bitmap),
+                context);
+    }
+
+    // The drawables to render: the icons of the launcher, a painted one, and
+    // bitmaps of other sizes and shapes, without density, to be resampled.
+    private int count() {
+        return ICONS.length + 3;
+    }
+
+    private Drawable makeDrawable(int i) {
+        final Resources resources = getContext().getResources();
+        if (i < ICONS.length) {
+            return resources.getDrawable(ICONS[i]);
+        }
+        if (i == ICONS.length) {
+            final PaintDrawable painter = new PaintDrawable(Color.MAGENTA);
+            painter.setCornerRadius(12);
+            return painter;
+        }
+        return new BitmapDrawable(resources, makeBitmap(i));
+    }
+
+    private static Bitmap makeBitmap(int i) {
+        final Bitmap bitmap = Bitmap.createBitmap(20 + i, 50 - i, Bitmap.Config.ARGB_8888);
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        for (int x = 0; x < bitmap.getWidth(); x++) {
+            for (int y = 0; y < bitmap.getHeight(); y++) {
+                bitmap.setPixel(x, y, Color.argb(255 - y * 4, x * 8, y * 5, i * 10));
+            }
+        }
+        return bitmap;
+    }
+
+    private ArrayList<Bitmap> renderLocked() {
+        final ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+        for (int i = 0; i < count(); i++) {
+            bitmaps.add(createIconBitmapLocked(makeDrawable(i), getContext()));
+        }
+        return bitmaps;
+    }
+
+    public void testSameAsLockedPath() {
+        final ArrayList<Bitmap> expected = renderLocked();
+        for (int i = 0; i < count(); i++) {
+            final Bitmap bitmap = Utilities.createIconBitmap(makeDrawable(i), getContext());
+            assertTrue("icon " + i, expected.get(i).sameAs(bitmap));
+        }
+    }
+
+    public void testResampleSameAsLockedPath() {
+        for (int i = ICONS.length + 1; i < count(); i++) {
+            final Bitmap expected = resampleIconBitmapLocked(makeBitmap(i), getContext());
+            final Bitmap bitmap = Utilities.resampleIconBitmap(makeBitmap(i), getContext());
+            assertTrue("bitmap " + i, expected.sameAs(bitmap));
+        }
+    }
+
+    public void testSameAsLockedPathOnSeveralThreads() throws Exception {
+        final ArrayList<Bitmap> expected = renderLocked();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final ArrayList<Future<ArrayList<Bitmap>>> results =
+                    new ArrayList<Future<ArrayList<Bitmap>>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<ArrayList<Bitmap>>() {
+                    public ArrayList<Bitmap> call() throws Exception {
+                        start.await();
+                        // Each thread goes through the icons in its own order,
+                        // so that different icons are rendered at once.
+                        final ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+                        for (int r = 0; r < ROUNDS; r++) {
+                            for (int j = 0; j < count(); j++) {
+                                final int i = (j + offset) % count();
+                                bitmaps.add(Utilities.createIconBitmap(makeDrawable(i),
+                                        getContext()));
+                            }
+                        }
+                        return bitmaps;
+                    }
+                }));
+            }
+            start.countDown();
+            for (int t = 0; t < THREADS; t++) {
+                final ArrayList<Bitmap> bitmaps = results.get(t).get();
+                for (int k = 0; k < bitmaps.size(); k++) {
+                    final int i = (k % count() + t) % count();
+                    assertTrue("icon " + i + " on thread " + t,
+                            expected.get(i).sameAs(bitmaps.get(k)));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cooeeui.brand.zenlauncher.scenes.utils;
+
+import java.io.InputStream;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.SparseIntArray;
+
+import com.cooeeui.brand.zenlauncher.R;
+
+/**
+ * Tests that {@link BitmapUtils#getIcon(Resources, int, int)} opens each
+ * built-in icon once, and decodes into the bitmaps given back with
+ * {@link BitmapUtils#releaseIcon(Bitmap)}.
+ */
+public class BitmapUtilsTest extends AndroidTestCase {
+    private static final int[] ICONS = new int[] {
+            R.raw.camera, R.raw.contacts, R.raw.setting, R.raw.dial, R.raw.sms, R.raw.browser
+    };
+
+    // A size nothing else decodes at, so the pool for it starts empty.
+    private static final int LENGTH = 77;
+
+    // As BitmapUtils.POOL_SIZE_PER_WIDTH.
+    private static final int POOL_SIZE = 4;
+
+    /** Resources that count the raw resources opened. */
+    private static class CountingResources extends Resources {
+        final SparseIntArray opened = new SparseIntArray();
+
+        CountingResources(Resources base) {
+            super(base.getAssets(), base.getDisplayMetrics(), base.getConfiguration());
+        }
+
+        @Override
+        public InputStream openRawResource(int id) throws NotFoundException {
+            opened.put(id, opened.get(id) + 1);
+            return super.openRawResource(id);
+        }
+    }
+
+    private Bitmap[] decodeAll(CountingResources resources) {
+        final Bitmap[] icons = new Bitmap[ICONS.length];
+        for (int i = 0; i < ICONS.length; i++) {
+            icons[i] = BitmapUtils.getIcon(resources, ICONS[i], LENGTH);
+            assertNotNull(icons[i]);
+            assertEquals(LENGTH, icons[i].getWidth());
+            assertEquals(LENGTH, icons[i].getHeight());
+        }
+        assertEquals(ICONS.length, resources.opened.size());
+        for (int id : ICONS) {
+            assertEquals("opened " + id, 1, resources.opened.get(id));
+        }
+        return icons;
+    }
+
+    public void testSecondPassReusesPool() {
+        final int decodes = BitmapUtils.getDecodeCount();
+        final int allocations = BitmapUtils.getAllocationCount();
+        final int reuses = BitmapUtils.getReuseCount();
+
+        final Bitmap[] first = decodeAll(new CountingResources(getContext().getResources()));
+        assertEquals(decodes + ICONS.length, BitmapUtils.getDecodeCount());
+        assertEquals(allocations + ICONS.length, BitmapUtils.getAllocationCount());
+        assertEquals(reuses, BitmapUtils.getReuseCount());
+
+        final Bitmap[] copies = new Bitmap[first.length];
+        for (int i = 0; i < first.length; i++) {
+            copies[i] = first[i].copy(Bitmap.Config.ARGB_8888, false);
+            BitmapUtils.releaseIcon(first[i]);
+        }
+
+        final Bitmap[] second = decodeAll(new CountingResources(getContext().getResources()));
+        assertEquals(decodes + 2 * ICONS.length, BitmapUtils.getDecodeCount());
+        // The decoder can only scale into a reused bitmap since KitKat.
+        final int reused = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? Math.min(POOL_SIZE, ICONS.length) : 0;
+        assertEquals(reuses + reused, BitmapUtils.getReuseCount());
+        assertEquals(allocations + 2 * ICONS.length - reused,
+                BitmapUtils.getAllocationCount());
+
+        // Decoding into an old bitmap gives the same pixels.
+        for (int i = 0; i < second.length; i++) {
+            assertTrue("icon " + i, copies[i].sameAs(second[i]));
+            BitmapUtils.releaseIcon(second[i]);
+        }
+    }
+}